@@ -0,0 +1,53 @@
+package mark.chunking;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+/**
+ * Builds the input for the benchmarks from the sample sentences used by the
+ * tests so that the rules see realistic text.
+ **/
+final class BenchmarkData {
+
+	private BenchmarkData() {
+		// only static methods
+	}
+
+	/**
+	 * Creates sentences of exactly the given length by joining the sample
+	 * sentences together into one long stream of tokens and then cutting it
+	 * up.
+	 * 
+	 * @param length
+	 *            the number of tokens in each sentence.
+	 * @param count
+	 *            the number of sentences to create.
+	 **/
+	static List<Sentence> sentences(int length, int count) throws IOException {
+		List<Sentence> samples = ChunkerTest.readSentences();
+		List<Sentence> sentences = new ArrayList<Sentence>(count);
+
+		int sample = 0;
+		int token = 0;
+		for (int i = 0; i < count; ++i) {
+			Sentence s = new Sentence();
+			while (s.words.size() < length) {
+				Sentence from = samples.get(sample);
+				s.words.add(from.words.get(token));
+				s.pos.add(from.pos.get(token));
+				s.tags.add(from.tags.get(token));
+
+				if (++token == from.words.size()) {
+					token = 0;
+					sample = (sample + 1) % samples.size();
+				}
+			}
+			sentences.add(s);
+		}
+
+		return sentences;
+	}
+}
@@ -0,0 +1,131 @@
+package mark.chunking;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures chunking sentences of different lengths with each engine, through
+ * both the list and the encoded APIs, one at a time and all together. Each invocation chunks a batch of
+ * different sentences so that the score is in sentences per millisecond.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkSentenceBenchmark {
+
+	private static final int BATCH = 100;
+
+	@Param({ "5", "25", "100", "400" })
+	public int length;
+
+	@Param({ "COMPILED", "TRANSDUCER", "INCREMENTAL", "VECTOR",
+			"PACKED" })
+	public ChunkerEngine engine;
+
+	private Chunker chunker;
+
+	private List<Sentence> sentences;
+
+	private int[][][] encoded;
+
+	private int[] result;
+
+	private List<List<String>> words, tags, pos;
+
+	private int[][] document;
+
+	private int[] lengths;
+
+	@Setup
+	public void setup() throws IOException {
+		chunker = new Chunker(getClass().getResource("/resources/rules"),
+				engine);
+		sentences = BenchmarkData.sentences(length, BATCH);
+
+		encoded = new int[BATCH][3][length];
+		for (int i = 0; i < BATCH; ++i) {
+			Sentence s = sentences.get(i);
+			for (int j = 0; j < length; ++j) {
+				encoded[i][Chunker.WORD][j] = chunker.getId(Chunker.WORD,
+						s.words.get(j));
+				encoded[i][Chunker.POS][j] = chunker.getId(Chunker.POS,
+						s.pos.get(j));
+				encoded[i][Chunker.TAG][j] = chunker.getId(Chunker.TAG,
+						s.tags.get(j));
+			}
+		}
+
+		words = new ArrayList<List<String>>();
+		tags = new ArrayList<List<String>>();
+		pos = new ArrayList<List<String>>();
+		for (Sentence s : sentences) {
+			words.add(s.words);
+			tags.add(s.tags);
+			pos.add(s.pos);
+		}
+
+		// the encoded sentences one after another
+		document = new int[3][BATCH * length];
+		lengths = new int[BATCH];
+		for (int i = 0; i < BATCH; ++i) {
+			for (int c = 0; c < 3; ++c)
+				System.arraycopy(encoded[i][c], 0, document[c], i * length,
+						length);
+			lengths[i] = length;
+		}
+		result = new int[BATCH * length];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void chunkLists(Blackhole blackhole) {
+		for (Sentence s : sentences) {
+			blackhole.consume(chunker.chunkSentence(s.words, s.tags, s.pos));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void chunkListBatch(Blackhole blackhole) {
+		blackhole.consume(chunker.chunkSentences(words, tags, pos));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void chunkEncodedDocument(Blackhole blackhole) {
+		chunker.chunkDocument(document[Chunker.WORD], document[Chunker.TAG],
+				document[Chunker.POS], lengths, BATCH, result);
+		blackhole.consume(result);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void chunkEncoded(Blackhole blackhole) {
+		for (int[][] s : encoded) {
+			chunker.chunkSentence(s[Chunker.WORD], s[Chunker.TAG],
+					s[Chunker.POS], length, result);
+			blackhole.consume(result);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package mark.chunking;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.Gate;
+import gate.creole.ExecutionException;
+import gate.creole.ResourceReference;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures running the GATE wrapper over a whole document which has already
+ * been tokenised, POS tagged and split into sentences.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecuteBenchmark {
+
+	/**
+	 * The approximate number of tokens in the document.
+	 **/
+	@Param({ "1000", "100000" })
+	public int tokens;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	/**
+	 * Whether the chunks share one empty feature map.
+	 **/
+	@Param({ "false", "true" })
+	public boolean shareFeatures;
+
+	private GATEWrapper chunker;
+
+	private Document document;
+
+	@Setup
+	public void setup() throws Exception {
+		Gate.runInSandbox(true);
+		if (!Gate.isInitialised())
+			Gate.init();
+
+		chunker = new GATEWrapper();
+		chunker.setRulesURL(new ResourceReference(getClass().getResource(
+				"/resources/rules")));
+		chunker.setPosTagURL(new ResourceReference(getClass().getResource(
+				"/resources/pos_tag_dict")));
+		chunker.setEngine(ChunkerEngine.COMPILED);
+		chunker.setPosFeature("category");
+		chunker.setUnknownTag("I");
+		chunker.setAnnotationName("NounChunk");
+		chunker.setOutputASName("chunks");
+		chunker.setParallel(parallel);
+		chunker.setShareFeatures(shareFeatures);
+		chunker.init();
+
+		// build the text of the document from sentences of 25 tokens
+		List<Sentence> sentences = BenchmarkData.sentences(25, tokens / 25);
+		StringBuilder text = new StringBuilder();
+		for (Sentence s : sentences) {
+			for (String word : s.words) {
+				text.append(word).append(' ');
+			}
+		}
+
+		document = Factory.newDocument(text.toString());
+
+		// and then add the annotations the chunker needs
+		AnnotationSet annotations = document.getAnnotations();
+		long offset = 0;
+		for (Sentence s : sentences) {
+			long start = offset;
+			for (int i = 0; i < s.words.size(); ++i) {
+				FeatureMap features = Factory.newFeatureMap();
+				features.put("string", s.words.get(i));
+				features.put("category", s.pos.get(i));
+
+				long end = offset + s.words.get(i).length();
+				annotations.add(offset, end, "Token", features);
+				offset = end + 1;
+			}
+			annotations.add(start, offset - 1, "Sentence",
+					Factory.newFeatureMap());
+		}
+
+		chunker.setDocument(document);
+	}
+
+	@Setup(Level.Invocation)
+	public void clearChunks() {
+		document.getAnnotations("chunks").clear();
+	}
+
+	@TearDown
+	public void tearDown() {
+		Factory.deleteResource(document);
+		Factory.deleteResource(chunker);
+	}
+
+	@Benchmark
+	public void execute() throws ExecutionException {
+		chunker.execute();
+	}
+}
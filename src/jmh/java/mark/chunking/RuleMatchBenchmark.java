@@ -0,0 +1,90 @@
+package mark.chunking;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures trying a single rule at every position of a sentence, using both
+ * the original list based match and the compiled match.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleMatchBenchmark {
+
+	/**
+	 * The index of the rule to try, covering rules from the start, middle
+	 * and end of the rules file.
+	 **/
+	@Param({ "0", "1000", "1999" })
+	public int rule;
+
+	private Rule r;
+
+	private List<String> words;
+
+	private List<String> tags;
+
+	private List<String> pos;
+
+	private int[][] sentence;
+
+	@Setup
+	public void setup() throws IOException {
+		Chunker chunker = new Chunker(getClass().getResource(
+				"/resources/rules"));
+		r = chunker.getRules().get(rule);
+
+		Sentence s = BenchmarkData.sentences(25, 1).get(0);
+		words = s.words;
+		tags = s.tags;
+		pos = s.pos;
+
+		sentence = new int[3][s.words.size()];
+		for (int i = 0; i < s.words.size(); ++i) {
+			sentence[Chunker.WORD][i] = chunker.getId(Chunker.WORD,
+					s.words.get(i));
+			sentence[Chunker.POS][i] = chunker.getId(Chunker.POS, s.pos.get(i));
+			sentence[Chunker.TAG][i] = chunker.getId(Chunker.TAG,
+					s.tags.get(i));
+		}
+	}
+
+	@Benchmark
+	public int matchLists() {
+		int matched = 0;
+		for (int i = 0; i < words.size(); ++i) {
+			if (r.match(i, words, tags, pos))
+				++matched;
+		}
+		return matched;
+	}
+
+	@Benchmark
+	public int matchCompiled() {
+		int matched = 0;
+		for (int i = 0; i < sentence[0].length; ++i) {
+			if (r.match(i, sentence[0].length, sentence))
+				++matched;
+		}
+		return matched;
+	}
+}
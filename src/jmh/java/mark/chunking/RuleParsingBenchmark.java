@@ -0,0 +1,62 @@
+package mark.chunking;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to load the rules, both from the text file and
+ * from a compiled model.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleParsingBenchmark {
+
+	private URL rules;
+
+	private URL model;
+
+	private File modelFile;
+
+	@Setup
+	public void setup() throws IOException {
+		rules = getClass().getResource("/resources/rules");
+
+		modelFile = File.createTempFile("chunker", ".model");
+		CompiledModel.compile(rules,
+				getClass().getResource("/resources/pos_tag_dict"), modelFile);
+		model = modelFile.toURI().toURL();
+	}
+
+	@TearDown
+	public void tearDown() {
+		modelFile.delete();
+	}
+
+	@Benchmark
+	public Chunker parseRules() throws IOException {
+		return new Chunker(rules);
+	}
+
+	@Benchmark
+	public Chunker loadCompiledModel() throws IOException {
+		return CompiledModel.read(model).createChunker(ChunkerEngine.COMPILED);
+	}
+}
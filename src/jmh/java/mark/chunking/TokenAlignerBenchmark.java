@@ -0,0 +1,132 @@
+package mark.chunking;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.util.OffsetComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares finding the tokens of every sentence of a GATE document by calling
+ * getContained and sorting the result for each sentence, as the wrapper used
+ * to, against sorting the tokens once and aligning them with the sentences in
+ * a single merge pass.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenAlignerBenchmark {
+
+	/**
+	 * The approximate number of tokens in the document.
+	 **/
+	@Param({ "100000", "250000" })
+	public int tokens;
+
+	private Document document;
+
+	private AnnotationSet tokenSet;
+
+	private Annotation[] sentences;
+
+	@Setup
+	public void setup() throws Exception {
+		Gate.runInSandbox(true);
+		if (!Gate.isInitialised())
+			Gate.init();
+
+		// build the text of the document from sentences of 25 tokens
+		List<Sentence> sample = BenchmarkData.sentences(25, tokens / 25);
+		StringBuilder text = new StringBuilder();
+		for (Sentence s : sample) {
+			for (String word : s.words) {
+				text.append(word).append(' ');
+			}
+		}
+
+		document = Factory.newDocument(text.toString());
+
+		// and then add the tokens and sentences
+		AnnotationSet annotations = document.getAnnotations();
+		long offset = 0;
+		for (Sentence s : sample) {
+			long start = offset;
+			for (String word : s.words) {
+				long end = offset + word.length();
+				annotations.add(offset, end, "Token", Factory.newFeatureMap());
+				offset = end + 1;
+			}
+			annotations.add(start, offset - 1, "Sentence",
+					Factory.newFeatureMap());
+		}
+
+		tokenSet = annotations.get("Token");
+		AnnotationSet sentenceSet = annotations.get("Sentence");
+		sentences = sentenceSet.toArray(new Annotation[sentenceSet.size()]);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Factory.deleteResource(document);
+	}
+
+	@Benchmark
+	public void getContained(Blackhole blackhole) {
+		for (Annotation sentence : sentences) {
+			List<Annotation> contained = new ArrayList<Annotation>();
+			contained.addAll(tokenSet.getContained(sentence.getStartNode()
+					.getOffset(), sentence.getEndNode().getOffset()));
+			Collections.sort(contained, new OffsetComparator());
+			blackhole.consume(contained);
+		}
+	}
+
+	@Benchmark
+	public void align(Blackhole blackhole) {
+		// sort the tokens once, just as the token snapshot does
+		List<Annotation> sorted = new ArrayList<Annotation>(tokenSet);
+		Collections.sort(sorted, new OffsetComparator());
+
+		long[] tokenStart = new long[sorted.size()];
+		long[] tokenEnd = new long[sorted.size()];
+		for (int t = 0; t < tokenStart.length; ++t) {
+			tokenStart[t] = sorted.get(t).getStartNode().getOffset();
+			tokenEnd[t] = sorted.get(t).getEndNode().getOffset();
+		}
+
+		long[] sentenceStart = new long[sentences.length];
+		long[] sentenceEnd = new long[sentences.length];
+		for (int s = 0; s < sentences.length; ++s) {
+			sentenceStart[s] = sentences[s].getStartNode().getOffset();
+			sentenceEnd[s] = sentences[s].getEndNode().getOffset();
+		}
+
+		blackhole.consume(TokenAligner.align(sentenceStart, sentenceEnd,
+				tokenStart, tokenEnd));
+	}
+}
@@ -0,0 +1,98 @@
+package mark.chunking;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the SIMD and scalar kernels of the {@link VectorEngine} on the
+ * shipped rules. The SIMD kernel is only used when the benchmarks are run on
+ * JDK 16 or later with the vector profile, which builds the kernel and adds
+ * the incubator module to the forked JVMs; otherwise both runs use the scalar
+ * kernel and a warning is printed.
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorKernelBenchmark {
+
+	private static final int BATCH = 100;
+
+	@Param({ "5", "25", "100", "400" })
+	public int length;
+
+	@Param({ "true", "false" })
+	public boolean vectorize;
+
+	private RuleEngine<?> engine;
+
+	private Workspace workspace;
+
+	private int[][][] encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		Chunker chunker = new Chunker(getClass().getResource(
+				"/resources/rules"));
+		MatchKernel kernel = VectorEngine.createKernel(vectorize);
+		if (vectorize && kernel instanceof ScalarKernel)
+			System.err.println("The Vector API isn't available");
+
+		engine = new VectorEngine(chunker.getRules(), kernel);
+		workspace = new Workspace(chunker.getSymbols(Chunker.WORD).size(),
+				chunker.getSymbols(Chunker.POS).size(), chunker.getSymbols(
+						Chunker.TAG).size(), engine.newScratch());
+		workspace.ensureCapacity(length + 1);
+
+		// encode each sentence with its end of sentence marker
+		List<Sentence> sentences = BenchmarkData.sentences(length, BATCH);
+		encoded = new int[BATCH][3][length + 1];
+		for (int i = 0; i < BATCH; ++i) {
+			Sentence s = sentences.get(i);
+			for (int j = 0; j < length; ++j) {
+				encoded[i][Chunker.WORD][j] = chunker.getId(Chunker.WORD,
+						s.words.get(j));
+				encoded[i][Chunker.POS][j] = chunker.getId(Chunker.POS,
+						s.pos.get(j));
+				encoded[i][Chunker.TAG][j] = chunker.getId(Chunker.TAG,
+						s.tags.get(j));
+			}
+			encoded[i][Chunker.WORD][length] = chunker.getId(Chunker.WORD,
+					"ZZZ");
+			encoded[i][Chunker.POS][length] = chunker.getId(Chunker.POS,
+					"ZZZ");
+			encoded[i][Chunker.TAG][length] = chunker.getId(Chunker.TAG, "Z");
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void chunk(Blackhole blackhole) {
+		for (int[][] s : encoded) {
+			for (int c = 0; c < 3; ++c)
+				System.arraycopy(s[c], 0, workspace.sentence[c], 0, length + 1);
+
+			engine.chunk(workspace, length + 1);
+			blackhole.consume(workspace.sentence[Chunker.TAG]);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link VectorEngine} loops written with the JDK Vector API so that each
+ * part of a rule is compared at as many positions at once as the CPU has int
+ * lanes. This is only compiled by the vector profile, on JDK 16 or later with
+ * the incubator module added, and is loaded by reflection so that the rest of the chunker still
+ * runs on Java 8.
+ **/
+final class VectorKernel implements MatchKernel {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public void match(int[] columns, int[] ids, int[][] offsets,
+			int[][] sentence, int from, int to, int[] mask) {
+		IntVector none = IntVector.zero(SPECIES);
+
+		int p = from;
+		int upper = from + SPECIES.loopBound(to - from);
+		for (; p < upper; p += SPECIES.length()) {
+			// every rule has at least one part so start from the first
+			VectorMask<Integer> matched = holds(columns, ids, offsets,
+					sentence, 0, p);
+
+			// there is no point checking any more parts once no lane can
+			// match
+			for (int i = 1; i < columns.length && matched.anyTrue(); ++i) {
+				matched = matched.and(holds(columns, ids, offsets, sentence,
+						i, p));
+			}
+
+			none.blend(-1, matched).intoArray(mask, p);
+		}
+
+		// finish off the positions which don't fill a whole vector
+		for (; p < to; ++p) {
+			int result = -1;
+			for (int i = 0; i < columns.length && result != 0; ++i) {
+				int[] working = sentence[columns[i]];
+				int holds = 0;
+				for (int offset : offsets[i]) {
+					if (working[p + offset] == ids[i])
+						holds = -1;
+				}
+				result &= holds;
+			}
+			mask[p] = result;
+		}
+	}
+
+	/**
+	 * Returns the lanes, starting at position p, in which a part of a rule
+	 * holds because its value is found at one of its offsets.
+	 **/
+	private static VectorMask<Integer> holds(int[] columns, int[] ids,
+			int[][] offsets, int[][] sentence, int part, int p) {
+		int[] working = sentence[columns[part]];
+		int[] ofs = offsets[part];
+
+		VectorMask<Integer> holds = IntVector.fromArray(SPECIES, working,
+				p + ofs[0]).eq(ids[part]);
+		for (int j = 1; j < ofs.length; ++j) {
+			holds = holds.or(IntVector.fromArray(SPECIES, working, p + ofs[j])
+					.eq(ids[part]));
+		}
+		return holds;
+	}
+
+	@Override
+	public int apply(int[] mask, int[] tags, int tag, int from, int to) {
+		int changed = 0;
+
+		int p = from;
+		int upper = from + SPECIES.loopBound(to - from);
+		for (; p < upper; p += SPECIES.length()) {
+			VectorMask<Integer> matched = IntVector.fromArray(SPECIES, mask, p)
+					.compare(VectorOperators.NE, 0);
+			if (!matched.anyTrue())
+				continue;
+
+			IntVector current = IntVector.fromArray(SPECIES, tags, p);
+			changed += matched.and(current.compare(VectorOperators.NE, tag))
+					.trueCount();
+			current.blend(tag, matched).intoArray(tags, p);
+		}
+
+		for (; p < to; ++p) {
+			if (mask[p] != 0 && tags[p] != tag) {
+				tags[p] = tag;
+				++changed;
+			}
+		}
+
+		return changed;
+	}
+}
@@ -0,0 +1,173 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.Arrays;
+
+/**
+ * An index, built once per sentence, of the positions at which each word and
+ * POS tag occurs. This allows a rule which names a specific word or POS tag to
+ * be tried only at the positions where that value actually occurs rather than
+ * at every token in the sentence. The index also counts how often each chunk
+ * tag occurs, although as the tags change while the rules are applied these
+ * counts are only correct for an engine which keeps them up to date using
+ * {@link #retag(int, int)}.
+ **/
+class AnchorIndex {
+
+	/**
+	 * For each indexed column, the index into positions at which the
+	 * positions for each id start. The positions for id i run from first[i]
+	 * up to (but not including) first[i+1].
+	 **/
+	private int[][] first = new int[2][];
+
+	/**
+	 * For each indexed column, the positions grouped by id.
+	 **/
+	private int[][] positions = new int[2][];
+
+	/**
+	 * The number of times each chunk tag occurs.
+	 **/
+	private final int[] tagCounts;
+
+	/**
+	 * Scratch space used while building the index.
+	 **/
+	private int[] fill;
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param wordSymbols
+	 *            the number of word ids that can occur.
+	 * @param posSymbols
+	 *            the number of POS ids that can occur.
+	 * @param tagSymbols
+	 *            the number of chunk tag ids that can occur.
+	 **/
+	AnchorIndex(int wordSymbols, int posSymbols, int tagSymbols) {
+		first[Chunker.WORD] = new int[wordSymbols + 1];
+		first[Chunker.POS] = new int[posSymbols + 1];
+		fill = new int[Math.max(wordSymbols, posSymbols)];
+		positions[Chunker.WORD] = new int[0];
+		positions[Chunker.POS] = new int[0];
+		tagCounts = new int[tagSymbols];
+	}
+
+	/**
+	 * (Re)builds the index for a sentence.
+	 *
+	 * @param sentence
+	 *            the encoded sentence, indexed first by column and then by
+	 *            token.
+	 * @param numTokens
+	 *            the number of tokens in the sentence, including the end of
+	 *            sentence marker.
+	 **/
+	void index(int[][] sentence, int numTokens) {
+		index(Chunker.WORD, sentence[Chunker.WORD], numTokens);
+		index(Chunker.POS, sentence[Chunker.POS], numTokens);
+
+		int[] tags = sentence[Chunker.TAG];
+		Arrays.fill(tagCounts, 0);
+		for (int i = 0; i < numTokens; ++i) {
+			if (tags[i] != Chunker.UNKNOWN)
+				++tagCounts[tags[i]];
+		}
+	}
+
+	/**
+	 * Updates the chunk tag counts when a rule changes the tag at a position.
+	 * 
+	 * @param from
+	 *            the id of the old tag.
+	 * @param to
+	 *            the id of the new tag.
+	 **/
+	void retag(int from, int to) {
+		if (from == to)
+			return;
+
+		if (from != Chunker.UNKNOWN)
+			--tagCounts[from];
+		++tagCounts[to];
+	}
+
+	private void index(int column, int[] values, int numTokens) {
+		int[] start = first[column];
+
+		if (positions[column].length < numTokens)
+			positions[column] = new int[numTokens];
+
+		// count how often each id occurs, unknown ids aren't indexed
+		// as no rule can refer to them
+		Arrays.fill(start, 0);
+		for (int i = 0; i < numTokens; ++i) {
+			if (values[i] != Chunker.UNKNOWN)
+				++start[values[i] + 1];
+		}
+
+		// turn the counts into the start of each group
+		for (int id = 1; id < start.length; ++id) {
+			start[id] += start[id - 1];
+		}
+
+		// and then drop each position into its group, in order
+		System.arraycopy(start, 0, fill, 0, start.length - 1);
+		for (int i = 0; i < numTokens; ++i) {
+			if (values[i] != Chunker.UNKNOWN)
+				positions[column][fill[values[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Returns how many times an id occurs in the sentence.
+	 **/
+	int count(int column, int id) {
+		if (column == Chunker.TAG)
+			return tagCounts[id];
+
+		return first[column][id + 1] - first[column][id];
+	}
+
+	/**
+	 * Returns the index of the first position of an id.
+	 **/
+	int start(int column, int id) {
+		return first[column][id];
+	}
+
+	/**
+	 * Returns the index just after the last position of an id.
+	 **/
+	int end(int column, int id) {
+		return first[column][id + 1];
+	}
+
+	/**
+	 * Returns the position stored at an index between {@link #start(int, int)}
+	 * and {@link #end(int, int)}.
+	 **/
+	int position(int column, int index) {
+		return positions[column][index];
+	}
+}
@@ -0,0 +1,49 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads UTF-8 text, skipping the byte order mark some editors put at the start
+ * of a file. This is used in place of GATE's BomStrippingInputStreamReader so
+ * that the chunker itself, and the command line tools built on it, can be run
+ * without GATE.
+ **/
+final class BomStrippingReader extends BufferedReader {
+
+	/**
+	 * The byte order mark as it appears once decoded.
+	 **/
+	private static final char BOM = '\uFEFF';
+
+	BomStrippingReader(InputStream in) throws IOException {
+		super(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+		// put back the first character unless it is the byte order mark
+		mark(1);
+		if (read() != BOM)
+			reset();
+	}
+}
@@ -0,0 +1,38 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The order in which a full {@link SentenceCache} throws sentences away.
+ **/
+public enum CacheEviction {
+
+	/**
+	 * Throws away the sentence which was least recently looked up.
+	 **/
+	LRU,
+
+	/**
+	 * Throws away the sentence which was added to the cache first, however
+	 * often it has been looked up since. This is slightly cheaper than LRU as
+	 * a hit doesn't have to reorder the cache.
+	 **/
+	FIFO
+}
@@ -0,0 +1,92 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+
+package mark.chunking;
+
+import java.util.Arrays;
+
+/**
+ * The noun chunks found in a document, held as the indexes of their first
+ * and last tokens in a {@link TokenSnapshot} until they are all added to the
+ * document in one go. The chunks of each sentence follow on from those of the
+ * previous sentence, and the arrays are only ever grown so they can be reused
+ * for document after document.
+ **/
+final class ChunkSpans {
+
+	/**
+	 * The number of chunks.
+	 **/
+	int size;
+
+	/**
+	 * The index of the first token of each chunk.
+	 **/
+	int[] first = new int[0];
+
+	/**
+	 * The index of the last token of each chunk.
+	 **/
+	int[] last = new int[0];
+
+	/**
+	 * The number of sentences.
+	 **/
+	int sentences;
+
+	/**
+	 * For each sentence, the index just after its last chunk.
+	 **/
+	int[] sentenceEnd = new int[0];
+
+	/**
+	 * Adds a chunk to the current sentence.
+	 **/
+	void add(int firstToken, int lastToken) {
+		if (size == first.length) {
+			int capacity = Math.max(16, size * 2);
+			first = Arrays.copyOf(first, capacity);
+			last = Arrays.copyOf(last, capacity);
+		}
+
+		first[size] = firstToken;
+		last[size++] = lastToken;
+	}
+
+	/**
+	 * Finishes the current sentence, the next chunk belonging to the next
+	 * sentence.
+	 **/
+	void endSentence() {
+		if (sentences == sentenceEnd.length)
+			sentenceEnd = Arrays.copyOf(sentenceEnd,
+					Math.max(16, sentences * 2));
+
+		sentenceEnd[sentences++] = size;
+	}
+
+	/**
+	 * Forgets all the chunks.
+	 **/
+	void clear() {
+		size = 0;
+		sentences = 0;
+	}
+}
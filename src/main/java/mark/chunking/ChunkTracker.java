@@ -0,0 +1,235 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+
+package mark.chunking;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.creole.ANNIEConstants;
+import gate.event.AnnotationEvent;
+import gate.event.AnnotationListener;
+import gate.event.AnnotationSetEvent;
+import gate.event.AnnotationSetListener;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers, between runs over the same document, the chunk annotations added
+ * for each sentence and which sentences have changed since they were chunked.
+ * The tracker listens to the input annotation set, and to each token in it,
+ * so that adding, removing or updating a token marks the sentences it falls
+ * within as dirty, as does adding or removing a sentence. The next run then
+ * only needs to replace the chunks of the dirty sentences.
+ * <p>
+ * Only weak references are held to the input and output annotation sets, so
+ * a tracker doesn't keep its document from being garbage collected.
+ **/
+final class ChunkTracker implements AnnotationSetListener, AnnotationListener {
+
+	/**
+	 * The annotation set the tracker is listening to.
+	 **/
+	private final WeakReference<AnnotationSet> input;
+
+	/**
+	 * The annotation set the chunks were added to.
+	 **/
+	private final WeakReference<AnnotationSet> output;
+
+	/**
+	 * Everything, other than the input, which affects the chunks that are
+	 * added. The chunks are only valid while these stay the same.
+	 **/
+	private final Object settings;
+
+	/**
+	 * The ids of the chunk annotations added for each sentence, keyed by the
+	 * id of the sentence.
+	 **/
+	private final Map<Integer, int[]> chunks = new HashMap<Integer, int[]>();
+
+	/**
+	 * The ids of the sentences which have changed since they were chunked.
+	 **/
+	private Set<Integer> dirty = new HashSet<Integer>();
+
+	/**
+	 * False while changes to the tokens are being ignored.
+	 **/
+	private volatile boolean listening = true;
+
+	/**
+	 * Creates a tracker and starts listening for changes to the input.
+	 * 
+	 * @param input
+	 *            the annotation set holding the tokens and sentences.
+	 * @param output
+	 *            the annotation set the chunks are added to.
+	 * @param settings
+	 *            whatever else the chunks depend on, compared using equals.
+	 **/
+	ChunkTracker(AnnotationSet input, AnnotationSet output, Object settings) {
+		this.input = new WeakReference<AnnotationSet>(input);
+		this.output = new WeakReference<AnnotationSet>(output);
+		this.settings = settings;
+
+		input.addAnnotationSetListener(this);
+		for (Annotation token : input
+				.get(ANNIEConstants.TOKEN_ANNOTATION_TYPE))
+			token.addAnnotationListener(this);
+	}
+
+	/**
+	 * Returns true if the chunks recorded by this tracker were produced from
+	 * the same input and settings.
+	 **/
+	boolean isTracking(AnnotationSet input, Object settings) {
+		return this.input.get() == input && this.settings.equals(settings);
+	}
+
+	/**
+	 * Stops listening for changes to the input.
+	 **/
+	void detach() {
+		AnnotationSet set = input.get();
+		if (set == null)
+			return;
+
+		set.removeAnnotationSetListener(this);
+		for (Annotation token : set.get(ANNIEConstants.TOKEN_ANNOTATION_TYPE))
+			token.removeAnnotationListener(this);
+	}
+
+	/**
+	 * Removes every chunk annotation recorded by this tracker, so that
+	 * chunking the whole document again doesn't add a second copy of them.
+	 * Chunks which were added to a different set from the one about to be
+	 * used are left alone, as they won't be duplicated.
+	 * 
+	 * @param outputAS
+	 *            the annotation set the chunks are about to be added to.
+	 **/
+	synchronized void removeChunks(AnnotationSet outputAS) {
+		AnnotationSet set = output.get();
+		if (set == outputAS) {
+			for (int[] ids : chunks.values()) {
+				for (int id : ids) {
+					Annotation chunk = set.get(id);
+					if (chunk != null)
+						set.remove(chunk);
+				}
+			}
+		}
+		chunks.clear();
+	}
+
+	/**
+	 * Starts or stops ignoring changes to the tokens, so that the chunk tag
+	 * features added to the tokens by the chunker itself don't make their
+	 * sentences dirty.
+	 **/
+	void setListening(boolean listening) {
+		this.listening = listening;
+	}
+
+	/**
+	 * Returns the ids of the sentences which have changed since they were
+	 * last chunked, and starts collecting a new set of changes.
+	 **/
+	synchronized Set<Integer> takeDirty() {
+		Set<Integer> changed = dirty;
+		dirty = new HashSet<Integer>();
+		return changed;
+	}
+
+	/**
+	 * Records the ids of the chunk annotations added for a sentence.
+	 **/
+	synchronized void chunked(Integer sentence, int[] ids) {
+		chunks.put(sentence, ids);
+	}
+
+	/**
+	 * Forgets, and returns, the ids of the chunk annotations added for a
+	 * sentence, or null if none were recorded.
+	 **/
+	synchronized int[] forget(Integer sentence) {
+		return chunks.remove(sentence);
+	}
+
+	@Override
+	public void annotationAdded(AnnotationSetEvent e) {
+		Annotation annotation = e.getAnnotation();
+		String type = annotation.getType();
+
+		if (type.equals(ANNIEConstants.SENTENCE_ANNOTATION_TYPE)) {
+			changed(annotation.getId());
+		} else if (type.equals(ANNIEConstants.TOKEN_ANNOTATION_TYPE)) {
+			// we also need to know if the features of the new token change
+			annotation.addAnnotationListener(this);
+			changed(annotation);
+		}
+	}
+
+	@Override
+	public void annotationRemoved(AnnotationSetEvent e) {
+		Annotation annotation = e.getAnnotation();
+		String type = annotation.getType();
+
+		if (type.equals(ANNIEConstants.SENTENCE_ANNOTATION_TYPE)) {
+			// the sentence is gone but its chunks still need removing
+			changed(annotation.getId());
+		} else if (type.equals(ANNIEConstants.TOKEN_ANNOTATION_TYPE)) {
+			annotation.removeAnnotationListener(this);
+			changed(annotation);
+		}
+	}
+
+	@Override
+	public void annotationUpdated(AnnotationEvent e) {
+		// only tokens are listened to, so this is a token whose string or
+		// POS tag may have changed
+		changed((Annotation) e.getSource());
+	}
+
+	/**
+	 * Marks the sentences a token falls within as dirty.
+	 **/
+	private void changed(Annotation token) {
+		AnnotationSet set = input.get();
+		if (set == null || !listening)
+			return;
+
+		// a token outside any sentence is never chunked, and if a sentence
+		// is later added around it then the new sentence will be dirty
+		for (Annotation sentence : set.get(
+				ANNIEConstants.SENTENCE_ANNOTATION_TYPE, token.getStartNode()
+						.getOffset(), token.getEndNode().getOffset()))
+			changed(sentence.getId());
+	}
+
+	private synchronized void changed(Integer sentence) {
+		dirty.add(sentence);
+	}
+}
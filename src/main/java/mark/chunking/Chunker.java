@@ -19,32 +19,116 @@
 
 package mark.chunking;
 
-import gate.util.BomStrippingInputStreamReader;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+/**
+ * Applies a set of transformation rules to the chunk tags of a sentence.
+ * <p>
+ * A Chunker is immutable once constructed: the rules are compiled into an
+ * unmodifiable rule set and none of the methods modify the lists or arrays
+ * they are given. A single instance can therefore be shared by any number of
+ * threads without any external synchronization, each thread being given its
+ * own scratch space the first time it chunks a sentence. The only thing which
+ * can be changed is whether {@link RuleStatistics} are being collected, which
+ * has no effect on the chunk tags.
+ **/
 public class Chunker implements Serializable {
 
-	private static final long serialVersionUID = 9147365383638459068L;
+	private static final long serialVersionUID = -2460812745071383129L;
+
+	/**
+	 * The column of an encoded sentence which holds the words.
+	 **/
+	public static final int WORD = 0;
+
+	/**
+	 * The column of an encoded sentence which holds the POS tags.
+	 **/
+	public static final int POS = 1;
+
+	/**
+	 * The column of an encoded sentence which holds the chunk tags.
+	 **/
+	public static final int TAG = 2;
+
+	/**
+	 * The id used to encode any value which isn't mentioned by the rules. Such
+	 * a value can never match part of a rule.
+	 **/
+	public static final int UNKNOWN = SymbolTable.NONE;
+
+	/**
+	 * The compiled rules, in the order they are applied.
+	 **/
+	private final List<Rule> rules;
+
+	/**
+	 * The symbol tables, indexed by column, holding every value used by the
+	 * rules (plus the end of sentence markers).
+	 **/
+	private final SymbolTable[] symbols;
+
+	/**
+	 * The ids of the end of sentence markers, indexed by column.
+	 **/
+	private final int[] sentinels = new int[3];
+
+	/**
+	 * The engine used to apply the rules.
+	 **/
+	private final RuleEngine<?> engine;
+
+	/**
+	 * The workspace used by each thread, created when first needed.
+	 **/
+	private transient volatile ThreadLocal<Workspace> workspaces;
 
-	private List<Rule> rules = new ArrayList<Rule>();
+	/**
+	 * The statistics being collected, or null if they aren't.
+	 **/
+	private transient volatile RuleStatistics statistics;
 
 	/**
-	 * The only constructor that reads the rules from a URL.
+	 * Reads the rules from a URL and applies them using the
+	 * {@link ChunkerEngine#COMPILED} engine.
 	 * 
 	 * @param u
 	 *            the URL of the rules file.
 	 **/
 	public Chunker(URL u) throws IOException {
+		this(u, ChunkerEngine.COMPILED);
+	}
+
+	/**
+	 * Reads the rules from a URL and prepares the requested engine for
+	 * applying them.
+	 * 
+	 * @param u
+	 *            the URL of the rules file.
+	 * @param engine
+	 *            the engine used to apply the rules.
+	 **/
+	public Chunker(URL u, ChunkerEngine engine) throws IOException {
+		symbols = new SymbolTable[] { new SymbolTable(), new SymbolTable(),
+				new SymbolTable() };
+
+		// intern the end of sentence markers first as some of
+		// the rules may well refer to them
+		sentinels[WORD] = symbols[WORD].intern("ZZZ");
+		sentinels[POS] = symbols[POS].intern("ZZZ");
+		sentinels[TAG] = symbols[TAG].intern("Z");
+
+		List<Rule> compiled = new ArrayList<Rule>();
+
 		// Open up the rules file read for reading
-		try (BufferedReader in = new BomStrippingInputStreamReader(
-				u.openStream())) {
+		try (BufferedReader in = new BomStrippingReader(u.openStream())) {
 
 			// read in the first rule from the file
 			String rule = in.readLine();
@@ -53,19 +137,113 @@ public class Chunker implements Serializable {
 				// while there are still rules to process...
 
 				if (!rule.trim().equals("")) {
-					// create and add a rule to the list of rules
-					rules.add(new Rule(rule));
+					// create, compile and add a rule to the list of rules
+					Rule r = new Rule(rule);
+					r.compile(symbols);
+					compiled.add(r);
 				}
 
 				// read in the next rule;
 				rule = in.readLine();
 			}
 		}
+
+		// nothing can change the rules once they have been read
+		rules = Collections.unmodifiableList(compiled);
+
+		// now the rules are known we can build the requested engine
+		this.engine = createEngine(engine);
+	}
+
+	/**
+	 * Creates a chunker from rules which have already been compiled against
+	 * the given symbol tables, such as those read from a
+	 * {@link CompiledModel}.
+	 * 
+	 * @param symbols
+	 *            the symbol tables, indexed by column, which must already
+	 *            contain the end of sentence markers.
+	 * @param rules
+	 *            the compiled rules in the order they are applied.
+	 * @param engine
+	 *            the engine used to apply the rules.
+	 **/
+	Chunker(SymbolTable[] symbols, List<Rule> rules, ChunkerEngine engine) {
+		this.symbols = symbols;
+
+		sentinels[WORD] = symbols[WORD].lookup("ZZZ");
+		sentinels[POS] = symbols[POS].lookup("ZZZ");
+		sentinels[TAG] = symbols[TAG].lookup("Z");
+
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+		this.engine = createEngine(engine);
+	}
+
+	/**
+	 * Builds the requested engine for applying the rules.
+	 **/
+	private RuleEngine<?> createEngine(ChunkerEngine engine) {
+		if (engine == ChunkerEngine.TRANSDUCER) {
+			return new RuleTransducer(rules, symbols[WORD].size(),
+					symbols[POS].size());
+		} else if (engine == ChunkerEngine.INCREMENTAL) {
+			return new IncrementalEngine(rules);
+		} else if (engine == ChunkerEngine.VECTOR) {
+			return new VectorEngine(rules);
+		} else if (engine == ChunkerEngine.PACKED
+				&& symbols[TAG].size() <= PackedEngine.TAGS) {
+			// the tags only fit in two bits if there are no more than four
+			// of them, otherwise we use the compiled engine
+			return new PackedEngine(rules);
+		} else {
+			return new CompiledEngine(rules);
+		}
+	}
+
+	/**
+	 * Returns the compiled rules in the order they are applied.
+	 **/
+	List<Rule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * Returns the symbol table for a column.
+	 **/
+	SymbolTable getSymbols(int column) {
+		return symbols[column];
+	}
+
+	/**
+	 * Returns the id used to encode a word, POS tag or chunk tag.
+	 * 
+	 * @param column
+	 *            one of {@link #WORD}, {@link #POS} or {@link #TAG}.
+	 * @param value
+	 *            the value to encode, may be null.
+	 * @return the id of the value or {@link #UNKNOWN} if the value isn't used
+	 *         by any of the rules.
+	 **/
+	public int getId(int column, String value) {
+		return symbols[column].lookup(value);
+	}
+
+	/**
+	 * Returns the value encoded by an id.
+	 * 
+	 * @param column
+	 *            one of {@link #WORD}, {@link #POS} or {@link #TAG}.
+	 * @param id
+	 *            an id other than {@link #UNKNOWN}.
+	 * @return the value the id encodes.
+	 **/
+	public String getValue(int column, int id) {
+		return symbols[column].get(id);
 	}
 
 	/**
 	 * This is the method which does all the work and returns an updated set of
-	 * chunk tags.
+	 * chunk tags. The lists are not modified.
 	 * 
 	 * @param words
 	 *            an ordered List of the words within the sentence.
@@ -77,6 +255,384 @@ public class Chunker implements Serializable {
 	 **/
 	public List<String> chunkSentence(List<String> words, List<String> tags,
 			List<String> pos) {
+		Workspace workspace = getWorkspace();
+		int length = words.size();
+		workspace.ensureCapacity(length + 1);
+
+		// encode the sentence straight into the workspace
+		int[][] sentence = workspace.sentence;
+		for (int i = 0; i < length; ++i) {
+			sentence[WORD][i] = symbols[WORD].lookup(words.get(i));
+			sentence[POS][i] = symbols[POS].lookup(pos.get(i));
+			sentence[TAG][i] = symbols[TAG].lookup(tags.get(i));
+		}
+
+		apply(workspace, length);
+
+		List<String> newTags = new ArrayList<String>(length);
+		for (int i = 0; i < length; ++i) {
+			// an unknown tag can never have been changed by a rule
+			// so simply copy it from the input
+			newTags.add(sentence[TAG][i] == UNKNOWN ? tags.get(i)
+					: symbols[TAG].get(sentence[TAG][i]));
+		}
+
+		return newTags;
+	}
+
+	/**
+	 * Chunks a sentence which has already been encoded using
+	 * {@link #getId(int, String)}. The arrays are not modified.
+	 * 
+	 * @param words
+	 *            the ids of the words within the sentence.
+	 * @param tags
+	 *            the ids of the chunk tags within the sentence.
+	 * @param pos
+	 *            the ids of the POS tags within the sentence.
+	 * @return the ids of the updated chunk tags for the sentence.
+	 **/
+	public int[] chunkSentence(int[] words, int[] tags, int[] pos) {
+		int[] result = new int[words.length];
+		chunkSentence(words, tags, pos, words.length, result);
+		return result;
+	}
+
+	/**
+	 * Chunks a sentence which has already been encoded using
+	 * {@link #getId(int, String)}, writing the updated chunk tags into an
+	 * array supplied by the caller. Once the buffers used by the calling
+	 * thread have grown to fit the longest sentence this method allocates
+	 * nothing. The input arrays are not modified.
+	 * 
+	 * @param words
+	 *            the ids of the words within the sentence.
+	 * @param tags
+	 *            the ids of the chunk tags within the sentence.
+	 * @param pos
+	 *            the ids of the POS tags within the sentence.
+	 * @param length
+	 *            the number of tokens in the sentence, which may be less than
+	 *            the length of the arrays.
+	 * @param result
+	 *            the array the ids of the updated chunk tags are written into,
+	 *            which may be the tags array.
+	 **/
+	public void chunkSentence(int[] words, int[] tags, int[] pos, int length,
+			int[] result) {
+		chunkSentence(words, tags, pos, 0, length, result);
+	}
+
+	/**
+	 * Chunks an encoded sentence held at an offset within the arrays, writing
+	 * the updated tags at the same offset of the result.
+	 **/
+	void chunkSentence(int[] words, int[] tags, int[] pos,
+			int offset, int length, int[] result) {
+		Workspace workspace = getWorkspace();
+		workspace.ensureCapacity(length + 1);
+
+		int[][] sentence = workspace.sentence;
+		System.arraycopy(words, offset, sentence[WORD], 0, length);
+		System.arraycopy(pos, offset, sentence[POS], 0, length);
+		System.arraycopy(tags, offset, sentence[TAG], 0, length);
+
+		apply(workspace, length);
+
+		System.arraycopy(sentence[TAG], 0, result, offset, length);
+	}
+
+	/**
+	 * Chunks many sentences at once, giving exactly the same chunk tags as
+	 * chunking each sentence on its own. The lists are not modified.
+	 * 
+	 * @param words
+	 *            the words of each sentence.
+	 * @param tags
+	 *            the chunk tags of each sentence.
+	 * @param pos
+	 *            the POS tags of each sentence.
+	 * @return the updated chunk tags of each sentence.
+	 * @see #chunkDocument(int[], int[], int[], int[], int, int[])
+	 **/
+	public List<List<String>> chunkSentences(List<List<String>> words,
+			List<List<String>> tags, List<List<String>> pos) {
+		int count = words.size();
+		int[] lengths = new int[count];
+		int total = 0;
+		for (int s = 0; s < count; ++s) {
+			lengths[s] = words.get(s).size();
+			total += lengths[s];
+		}
+
+		// encode every sentence one after another
+		int[] w = new int[total];
+		int[] t = new int[total];
+		int[] p = new int[total];
+		int i = 0;
+		for (int s = 0; s < count; ++s) {
+			List<String> sw = words.get(s);
+			List<String> st = tags.get(s);
+			List<String> sp = pos.get(s);
+			for (int j = 0; j < lengths[s]; ++j, ++i) {
+				w[i] = symbols[WORD].lookup(sw.get(j));
+				t[i] = symbols[TAG].lookup(st.get(j));
+				p[i] = symbols[POS].lookup(sp.get(j));
+			}
+		}
+
+		chunkDocument(w, t, p, lengths, count, t);
+
+		List<List<String>> result = new ArrayList<List<String>>(count);
+		i = 0;
+		for (int s = 0; s < count; ++s) {
+			List<String> st = tags.get(s);
+			List<String> newTags = new ArrayList<String>(lengths[s]);
+			for (int j = 0; j < lengths[s]; ++j, ++i) {
+				// an unknown tag can never have been changed by a rule
+				// so simply copy it from the input
+				newTags.add(t[i] == UNKNOWN ? st.get(j) : symbols[TAG]
+						.get(t[i]));
+			}
+			result.add(newTags);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Chunks many encoded sentences at once, giving exactly the same chunk
+	 * tags as chunking each sentence on its own. When the engine supports it
+	 * ({@link ChunkerEngine#COMPILED} and {@link ChunkerEngine#PACKED}) the
+	 * sentences are laid out one after another, each followed by its own end
+	 * of sentence marker, and each rule is applied just once to the whole
+	 * lot, which is much quicker for lots of short sentences. Other engines
+	 * chunk the sentences one at a time. Once the buffers used by the calling
+	 * thread have grown to fit the largest document this method allocates
+	 * nothing. The input arrays are not modified.
+	 * 
+	 * @param words
+	 *            the ids of the words of every sentence, one sentence after
+	 *            another.
+	 * @param tags
+	 *            the ids of the chunk tags of every sentence.
+	 * @param pos
+	 *            the ids of the POS tags of every sentence.
+	 * @param lengths
+	 *            the number of tokens in each sentence.
+	 * @param count
+	 *            the number of sentences.
+	 * @param result
+	 *            the array the ids of the updated chunk tags are written into,
+	 *            laid out in the same way as the tags, which may be the tags
+	 *            array.
+	 **/
+	public void chunkDocument(int[] words, int[] tags, int[] pos,
+			int[] lengths, int count, int[] result) {
+		if (!engine.supportsDocuments()) {
+			int offset = 0;
+			for (int s = 0; s < count; ++s) {
+				chunkSentence(words, tags, pos, offset, lengths[s], result);
+				offset += lengths[s];
+			}
+			return;
+		}
+
+		if (count == 0)
+			return;
+
+		int numTokens = count;
+		for (int s = 0; s < count; ++s)
+			numTokens += lengths[s];
+
+		Workspace workspace = getWorkspace();
+		workspace.ensureCapacity(numTokens);
+		attachStatistics(workspace);
+
+		// copy each sentence into the workspace followed by its own end of
+		// sentence marker, recording which sentence each position is in
+		int[][] sentence = workspace.sentence;
+		int from = 0;
+		int to = 0;
+		for (int s = 0; s < count; ++s) {
+			int length = lengths[s];
+			System.arraycopy(words, from, sentence[WORD], to, length);
+			System.arraycopy(pos, from, sentence[POS], to, length);
+			System.arraycopy(tags, from, sentence[TAG], to, length);
+
+			int end = to + length;
+			sentence[WORD][end] = sentinels[WORD];
+			sentence[POS][end] = sentinels[POS];
+			sentence[TAG][end] = sentinels[TAG];
+
+			for (int p = to; p <= end; ++p) {
+				workspace.sentenceStart[p] = to;
+				workspace.sentenceEnd[p] = end;
+			}
+
+			from += length;
+			to = end + 1;
+		}
+
+		workspace.startDocument();
+		try {
+			engine.chunk(workspace, numTokens);
+		} finally {
+			workspace.document = false;
+		}
+
+		// the engine counted the document as a single sentence
+		if (workspace.counters != null)
+			workspace.counters.sentences += count - 1;
+
+		// copy the tags back out, leaving out the end of sentence markers
+		from = 0;
+		to = 0;
+		for (int s = 0; s < count; ++s) {
+			System.arraycopy(sentence[TAG], to, result, from, lengths[s]);
+			from += lengths[s];
+			to += lengths[s] + 1;
+		}
+	}
+
+	/**
+	 * Returns the workspace for the calling thread.
+	 **/
+	private Workspace getWorkspace() {
+		ThreadLocal<Workspace> local = workspaces;
+
+		if (local == null) {
+			synchronized (this) {
+				if (workspaces == null)
+					workspaces = new ThreadLocal<Workspace>();
+				local = workspaces;
+			}
+		}
+
+		Workspace workspace = local.get();
+		if (workspace == null) {
+			workspace = new Workspace(symbols[WORD].size(),
+					symbols[POS].size(), symbols[TAG].size(),
+					engine.newScratch());
+			local.set(workspace);
+		}
+
+		return workspace;
+	}
+
+	/**
+	 * Applies the rules to the sentence held in a workspace, updating the
+	 * chunk tags in place.
+	 * 
+	 * @param workspace
+	 *            the workspace holding the encoded sentence.
+	 * @param length
+	 *            the number of tokens in the sentence, not including the end
+	 *            of sentence marker.
+	 **/
+	private void apply(Workspace workspace, int length) {
+		int[][] sentence = workspace.sentence;
+
+		attachStatistics(workspace);
+
+		// add the word/pos/tag that represents the end of the sentence,
+		// cos some of the rules match against the end of the sentence
+		sentence[WORD][length] = sentinels[WORD];
+		sentence[POS][length] = sentinels[POS];
+		sentence[TAG][length] = sentinels[TAG];
+
+		engine.chunk(workspace, length + 1);
+	}
+
+	/**
+	 * Makes sure a workspace is counting into the current statistics, if any.
+	 **/
+	private void attachStatistics(Workspace workspace) {
+		// pick up any change to whether statistics are being collected
+		RuleStatistics current = statistics;
+		if (workspace.statistics != current)
+			workspace.attach(current);
+	}
+
+	/**
+	 * Returns the number of rule and position pairs this chunker has tried.
+	 * Trying every rule at every position of a sentence is the number of
+	 * rules times the number of tokens, plus one for the end of sentence
+	 * marker.
+	 * 
+	 * @return the number of rule and position pairs tried.
+	 **/
+	public long getPositionsTested() {
+		return engine.getPositionsTested();
+	}
+
+	/**
+	 * Returns the number of rule and position pairs this chunker didn't have
+	 * to try because the engine could tell that the rule couldn't match.
+	 * 
+	 * @return the number of rule and position pairs skipped.
+	 **/
+	public long getPositionsSkipped() {
+		return engine.getPositionsSkipped();
+	}
+
+	/**
+	 * Returns the number of times a rule wasn't applied to a sentence at all
+	 * because a word, POS tag or chunk tag the rule needs doesn't occur
+	 * anywhere in the sentence. The {@link ChunkerEngine#COMPILED} engine
+	 * checks every value a rule needs, whereas the
+	 * {@link ChunkerEngine#INCREMENTAL}, {@link ChunkerEngine#VECTOR} and
+	 * {@link ChunkerEngine#PACKED} engines only check the words and POS tags,
+	 * and the {@link ChunkerEngine#TRANSDUCER} engine never skips a rule.
+	 * 
+	 * @return the number of rules skipped, summed over every sentence.
+	 **/
+	public long getRulesSkipped() {
+		return engine.getRulesSkipped();
+	}
+
+	/**
+	 * Starts collecting statistics about what each rule does, if they aren't
+	 * already being collected. Collecting the statistics slows chunking down
+	 * slightly, whereas when they aren't being collected there is no cost.
+	 * 
+	 * @return the statistics being collected.
+	 **/
+	public synchronized RuleStatistics enableStatistics() {
+		if (statistics == null)
+			statistics = new RuleStatistics(rules);
+		return statistics;
+	}
+
+	/**
+	 * Stops collecting statistics.
+	 **/
+	public synchronized void disableStatistics() {
+		statistics = null;
+	}
+
+	/**
+	 * Returns the statistics being collected.
+	 * 
+	 * @return the statistics being collected, or null if they aren't.
+	 **/
+	public RuleStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * The original, uncompiled, implementation of
+	 * {@link #chunkSentence(List, List, List)} which applies each
+	 * {@link Rule} to the lists of strings directly. This is retained as the
+	 * reference the compiled engine is checked against.
+	 **/
+	List<String> chunkSentenceReference(List<String> words, List<String> tags,
+			List<String> pos) {
+		// work on copies so the caller's lists are left alone
+		words = new ArrayList<String>(words);
+		tags = new ArrayList<String>(tags);
+		pos = new ArrayList<String>(pos);
+
 		// add the word/pos/tag that represents the end of
 		// the sentence, cos some of the rules match against
 		// the end of the sentence
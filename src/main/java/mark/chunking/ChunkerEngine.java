@@ -0,0 +1,62 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The different ways in which a {@link Chunker} can apply its rules to a
+ * sentence. Every engine produces exactly the same chunk tags.
+ **/
+public enum ChunkerEngine {
+
+	/**
+	 * Tries each rule in turn at just the positions where its least frequent
+	 * word or POS tag occurs.
+	 **/
+	COMPILED,
+
+	/**
+	 * Finds the word and POS context of every rule in a single left-to-right
+	 * pass using a lazily determinized finite-state transducer and then
+	 * applies just the rules it found, in order.
+	 **/
+	TRANSDUCER,
+
+	/**
+	 * Checks the word and POS tag parts of each rule only where they could
+	 * match and caches whether the chunk tag parts hold, re-checking them only
+	 * around the tags that earlier rules actually changed.
+	 **/
+	INCREMENTAL,
+
+	/**
+	 * Evaluates each rule at every position of the sentence at once using the
+	 * SIMD instructions of the JDK Vector API, when it is available, or plain
+	 * loops when it isn't.
+	 **/
+	VECTOR,
+
+	/**
+	 * Packs the chunk tags into two bits per position so that the T parts of
+	 * a rule are checked at 32 positions at a time with shifts and masks. This
+	 * needs rules which use no more than three chunk tags, as the shipped
+	 * rules do, and falls back to {@link #COMPILED} for any other rules.
+	 **/
+	PACKED
+}
@@ -0,0 +1,140 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The engine behind {@link ChunkerEngine#COMPILED} which applies each rule in
+ * turn, trying it only at the positions its W and P parts could match. A rule
+ * is skipped altogether when a word, POS tag or chunk tag it needs is missing
+ * from the sentence, the chunk tag counts being updated as the tags change.
+ **/
+class CompiledEngine extends RuleEngine<CompiledEngine.Scratch> {
+	private static final long serialVersionUID = -6018436657624553394L;
+
+	CompiledEngine(List<Rule> rules) {
+		super(rules);
+	}
+
+	@Override
+	Scratch newScratch() {
+		return new Scratch();
+	}
+
+	@Override
+	boolean supportsDocuments() {
+		// Rule.findMatches checks the sentence bounds
+		return true;
+	}
+
+	@Override
+	void apply(Workspace workspace, Scratch scratch, int numTokens) {
+		int[][] sentence = workspace.sentence;
+		scratch.ensureCapacity(workspace.capacity());
+
+		// index where each word and POS tag occurs so that rules only
+		// need to be tried where they could possibly match
+		AnchorIndex index = workspace.index;
+		index.index(sentence, numTokens);
+
+		int[] matches = workspace.matches;
+		int[] tags = sentence[Chunker.TAG];
+		RuleCounters counters = workspace.counters;
+		for (int r = 0; r < rules.length; ++r) {
+			Rule rule = rules[r];
+
+			// most rules need a word or tag which isn't in the sentence,
+			// including chunk tags no earlier rule has produced
+			if (!rule.canMatch(index)) {
+				++workspace.skipped;
+				continue;
+			}
+
+			if (counters != null)
+				counters.startRule(workspace.tried);
+
+			// find all the positions the rule matches before changing any
+			// of the tags, this stops rule-chaining
+			int matched = rule.findMatches(numTokens, workspace,
+					scratch.seen, scratch.nextStamp());
+
+			if (counters == null) {
+				for (int i = 0; i < matched; ++i) {
+					index.retag(tags[matches[i]], rule.getNewTagId());
+					tags[matches[i]] = rule.getNewTagId();
+				}
+			} else {
+				int changed = 0;
+				for (int i = 0; i < matched; ++i) {
+					if (tags[matches[i]] != rule.getNewTagId()) {
+						index.retag(tags[matches[i]], rule.getNewTagId());
+						tags[matches[i]] = rule.getNewTagId();
+						++changed;
+					}
+				}
+				counters.endRule(r, workspace.tried, matched, changed);
+			}
+		}
+	}
+
+	/**
+	 * The positions a rule has already been tried at, kept by each thread.
+	 **/
+	static final class Scratch {
+
+		/**
+		 * The stamp of the last rule tried at each position, used to avoid
+		 * trying a rule more than once at the same position.
+		 **/
+		int[] seen = new int[0];
+
+		/**
+		 * The stamp to use for the next rule.
+		 **/
+		private int stamp = 0;
+
+		/**
+		 * Makes sure seen can hold the given number of positions.
+		 **/
+		void ensureCapacity(int capacity) {
+			if (seen.length < capacity) {
+				seen = new int[capacity];
+				Arrays.fill(seen, -1);
+				stamp = 0;
+			}
+		}
+
+		/**
+		 * Returns a stamp, for use with {@link #seen}, which hasn't been
+		 * used before.
+		 **/
+		int nextStamp() {
+			if (stamp == Integer.MAX_VALUE) {
+				// we've run out of stamps so forget every position we've
+				// seen
+				Arrays.fill(seen, -1);
+				stamp = 0;
+			}
+			return stamp++;
+		}
+	}
+}
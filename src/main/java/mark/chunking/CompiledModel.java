@@ -0,0 +1,491 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A rules file and POS tag dictionary compiled into a compact binary file so
+ * that they can be loaded without parsing any text. A compiled model is
+ * created by running this class from the command line:
+ * 
+ * <pre>
+ * java mark.chunking.CompiledModel rules pos_tag_dict model.bin
+ * </pre>
+ * 
+ * The file starts with a header holding a magic number, the format version, a
+ * checksum of the text files it was compiled from, a checksum of the rest of
+ * the file and the length and last modified time of each of the text files. This is followed by the three symbol tables, the POS tag
+ * dictionary and finally the compiled rules, which refer to the symbols by id.
+ * All the numbers are big-endian and the strings are stored as a length
+ * followed by their UTF-8 bytes.
+ **/
+public class CompiledModel {
+
+	/**
+	 * The first four bytes of every compiled model, "NPCM".
+	 **/
+	static final int MAGIC = 0x4E50434D;
+
+	/**
+	 * The version of the file format, which must be changed whenever the
+	 * format is.
+	 **/
+	static final int VERSION = 2;
+
+	/**
+	 * The size of the header which precedes the checksummed part of the file.
+	 **/
+	static final int HEADER = 56;
+
+	/**
+	 * The symbol tables, indexed by column.
+	 **/
+	private final SymbolTable[] symbols;
+
+	/**
+	 * The compiled rules in the order they are applied.
+	 **/
+	private final List<Rule> rules;
+
+	/**
+	 * The initial chunk tag for each POS tag.
+	 **/
+	private final Map<String, String> chunkTags;
+
+	/**
+	 * The checksum of the rules and POS tag dictionary the model was compiled
+	 * from.
+	 **/
+	private final long sourceChecksum;
+
+	/**
+	 * The length and last modified time of the rules and then of the POS tag
+	 * dictionary when the model was compiled, or -1 if they weren't known.
+	 **/
+	private final long[] sourceStamps = new long[4];
+
+	private CompiledModel(ByteBuffer in) throws IOException {
+		if (in.remaining() < HEADER || in.getInt() != MAGIC)
+			throw new IOException("Not a compiled chunker model");
+
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported compiled model version "
+					+ version + ", expected " + VERSION);
+
+		sourceChecksum = in.getLong();
+		long checksum = in.getLong();
+		for (int i = 0; i < sourceStamps.length; ++i)
+			sourceStamps[i] = in.getLong();
+
+		// check the rest of the file hasn't been truncated or corrupted
+		CRC32 crc = new CRC32();
+		crc.update(in.duplicate());
+		if (crc.getValue() != checksum)
+			throw new IOException("The compiled model is corrupt");
+
+		// a file with the right checksum can still be malformed, if it was
+		// written badly in the first place, and whatever goes wrong while
+		// decoding it the caller should simply see a model it can't load
+		try {
+			symbols = readSymbols(in);
+			chunkTags = readChunkTags(in);
+			rules = readRules(in, symbols);
+		} catch (RuntimeException e) {
+			throw new IOException("The compiled model is malformed", e);
+		}
+
+		if (in.hasRemaining())
+			throw new IOException("The compiled model is malformed");
+	}
+
+	private static SymbolTable[] readSymbols(ByteBuffer in)
+			throws IOException {
+		SymbolTable[] symbols = new SymbolTable[3];
+		for (int column = 0; column < symbols.length; ++column) {
+			// interning the symbols in order gives them the same ids they
+			// had when the model was written
+			symbols[column] = new SymbolTable();
+			int count = readCount(in);
+			for (int i = 0; i < count; ++i) {
+				symbols[column].intern(readString(in));
+			}
+
+			// a repeated symbol would shift the ids of those after it
+			if (symbols[column].size() != count)
+				throw new IOException("The compiled model is malformed");
+		}
+
+		// the chunker needs the end of sentence marker in every column
+		if (symbols[Chunker.WORD].lookup("ZZZ") == Chunker.UNKNOWN
+				|| symbols[Chunker.POS].lookup("ZZZ") == Chunker.UNKNOWN
+				|| symbols[Chunker.TAG].lookup("Z") == Chunker.UNKNOWN)
+			throw new IOException("The compiled model is malformed");
+
+		return symbols;
+	}
+
+	private static Map<String, String> readChunkTags(ByteBuffer in)
+			throws IOException {
+		int count = readCount(in);
+		Map<String, String> tags = new HashMap<String, String>();
+		for (int i = 0; i < count; ++i) {
+			tags.put(readString(in), readString(in));
+		}
+		return Collections.unmodifiableMap(tags);
+	}
+
+	private static List<Rule> readRules(ByteBuffer in, SymbolTable[] symbols)
+			throws IOException {
+		int count = readCount(in);
+		List<Rule> rules = new ArrayList<Rule>(count);
+		for (int r = 0; r < count; ++r) {
+			int parts = in.get();
+			if (parts <= 0)
+				throw new IOException("The compiled model is malformed");
+
+			int[] columns = new int[parts];
+			int[] ids = new int[parts];
+			int[] offsetIndex = new int[parts + 1];
+			int[] offsetList = new int[in.get()];
+
+			int offsets = 0;
+			for (int i = 0; i < parts; ++i) {
+				columns[i] = in.get();
+				ids[i] = in.getInt();
+				if (columns[i] < Chunker.WORD || columns[i] > Chunker.TAG
+						|| ids[i] < 0 || ids[i] >= symbols[columns[i]].size())
+					throw new IOException("The compiled model is malformed");
+
+				offsetIndex[i] = offsets;
+				int length = in.get();
+				if (length <= 0)
+					throw new IOException("The compiled model is malformed");
+				offsets += length;
+				for (int j = offsetIndex[i]; j < offsets; ++j) {
+					offsetList[j] = in.get();
+				}
+			}
+			offsetIndex[parts] = offsets;
+			if (offsets != offsetList.length)
+				throw new IOException("The compiled model is malformed");
+
+			int outId = in.getInt();
+			if (outId < 0 || outId >= symbols[Chunker.TAG].size())
+				throw new IOException("The compiled model is malformed");
+
+			rules.add(new Rule(columns, ids, offsetIndex, offsetList, outId,
+					symbols));
+		}
+		return rules;
+	}
+
+	/**
+	 * Reads the number of items that follow, which can't be more than the
+	 * number of bytes left as every item takes at least one.
+	 **/
+	private static int readCount(ByteBuffer in) throws IOException {
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining())
+			throw new IOException("The compiled model is malformed");
+		return count;
+	}
+
+	/**
+	 * Loads a compiled model. If the model is a local file then it is memory
+	 * mapped rather than read.
+	 * 
+	 * @param model
+	 *            the URL of the compiled model.
+	 * @return the loaded model.
+	 * @throws IOException
+	 *             if the model can't be read or isn't a valid compiled model,
+	 *             including a model whose checksum is correct but whose
+	 *             content can't be decoded.
+	 **/
+	public static CompiledModel read(URL model) throws IOException {
+		return new CompiledModel(map(model));
+	}
+
+	private static ByteBuffer map(URL model) throws IOException {
+		if ("file".equals(model.getProtocol())) {
+			try (FileChannel channel = FileChannel.open(
+					Paths.get(model.toURI()), StandardOpenOption.READ)) {
+				return channel.map(MapMode.READ_ONLY, 0, channel.size());
+			} catch (URISyntaxException e) {
+				throw new IOException("Invalid model URL: " + model, e);
+			}
+		}
+
+		// anything else, such as an entry in a jar, has to be read into
+		// memory
+		try (InputStream in = model.openStream()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return ByteBuffer.wrap(bytes.toByteArray());
+		}
+	}
+
+	/**
+	 * Creates a chunker which applies the rules of this model.
+	 * 
+	 * @param engine
+	 *            the engine used to apply the rules.
+	 * @return a new chunker.
+	 **/
+	public Chunker createChunker(ChunkerEngine engine) {
+		return new Chunker(symbols, rules, engine);
+	}
+
+	/**
+	 * Returns the POS tag dictionary of this model.
+	 * 
+	 * @return an unmodifiable map from each POS tag to its initial chunk tag.
+	 **/
+	public Map<String, String> getChunkTags() {
+		return chunkTags;
+	}
+
+	/**
+	 * Checks that this model was compiled from the given rules and POS tag
+	 * dictionary. If both are local files with the same length and last
+	 * modified time as when the model was compiled then they are assumed not
+	 * to have changed; otherwise they are read and checksummed. If the text
+	 * files can't be read then there is no way of telling whether the model
+	 * matches them, so it is reported as out of date rather than risk using
+	 * stale rules; the caller will then find out why the files can't be read
+	 * when it falls back to loading them.
+	 * 
+	 * @param rules
+	 *            the URL of the rules file.
+	 * @param posTags
+	 *            the URL of the pos_tag_dict file.
+	 * @return false if the text files have changed since the model was
+	 *         compiled, or can't be read.
+	 **/
+	public boolean isUpToDate(URL rules, URL posTags) {
+		// the stamps can only be trusted if all of them were known
+		boolean known = true;
+		for (long stamp : sourceStamps)
+			known &= stamp != -1;
+		if (known && Arrays.equals(stamps(rules, posTags), sourceStamps))
+			return true;
+
+		try {
+			return checksum(rules, posTags) == sourceChecksum;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles a rules file and POS tag dictionary into a binary model.
+	 * 
+	 * @param rules
+	 *            the URL of the rules file.
+	 * @param posTags
+	 *            the URL of the pos_tag_dict file.
+	 * @param model
+	 *            the file the compiled model is written to.
+	 **/
+	public static void compile(URL rules, URL posTags, File model)
+			throws IOException {
+		// parse the rules in exactly the same way as when they are loaded
+		// from the text file
+		Chunker chunker = new Chunker(rules);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		for (int column = Chunker.WORD; column <= Chunker.TAG; ++column) {
+			SymbolTable table = chunker.getSymbols(column);
+			out.writeInt(table.size());
+			for (int i = 0; i < table.size(); ++i) {
+				writeString(out, table.get(i));
+			}
+		}
+
+		Map<String, String> tags = readChunkTags(posTags);
+		out.writeInt(tags.size());
+		for (Map.Entry<String, String> entry : tags.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+
+		out.writeInt(chunker.getRules().size());
+		for (Rule rule : chunker.getRules()) {
+			int total = 0;
+			for (int i = 0; i < rule.getPartCount(); ++i) {
+				total += rule.getOffsets(i).length;
+			}
+
+			out.writeByte(rule.getPartCount());
+			out.writeByte(total);
+			for (int i = 0; i < rule.getPartCount(); ++i) {
+				out.writeByte(rule.getColumn(i));
+				out.writeInt(rule.getValueId(i));
+
+				int[] offsets = rule.getOffsets(i);
+				out.writeByte(offsets.length);
+				for (int offset : offsets) {
+					out.writeByte(offset);
+				}
+			}
+			out.writeInt(rule.getNewTagId());
+		}
+		out.flush();
+
+		byte[] payload = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		try (OutputStream file = new FileOutputStream(model)) {
+			DataOutputStream header = new DataOutputStream(file);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(checksum(rules, posTags));
+			header.writeLong(crc.getValue());
+			for (long stamp : stamps(rules, posTags))
+				header.writeLong(stamp);
+			header.write(payload);
+			header.flush();
+		}
+	}
+
+	/**
+	 * Returns the length and last modified time of the rules file and then of
+	 * the POS tag dictionary. These are only known for local files, anything
+	 * else, or a file which can't be read, is given -1 for both.
+	 **/
+	static long[] stamps(URL rules, URL posTags) {
+		long[] stamps = new long[4];
+		Arrays.fill(stamps, -1);
+		URL[] urls = { rules, posTags };
+		for (int i = 0; i < urls.length; ++i) {
+			if (!"file".equals(urls[i].getProtocol()))
+				continue;
+
+			try {
+				Path path = Paths.get(urls[i].toURI());
+				stamps[i * 2] = Files.size(path);
+				stamps[i * 2 + 1] = Files.getLastModifiedTime(path)
+						.toMillis();
+			} catch (IOException | URISyntaxException
+					| IllegalArgumentException e) {
+				stamps[i * 2] = -1;
+				stamps[i * 2 + 1] = -1;
+			}
+		}
+		return stamps;
+	}
+
+	/**
+	 * Calculates a checksum of the contents of the rules file and POS tag
+	 * dictionary.
+	 **/
+	static long checksum(URL rules, URL posTags) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		for (URL u : new URL[] { rules, posTags }) {
+			try (InputStream in = u.openStream()) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					crc.update(buffer, 0, read);
+				}
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Reads a POS tag dictionary in which each line holds a POS tag and the
+	 * initial chunk tag for it, separated by a space. Blank lines, and lines
+	 * without a chunk tag, are skipped.
+	 **/
+	static Map<String, String> readChunkTags(URL posTags)
+			throws IOException {
+		Map<String, String> tags = new HashMap<String, String>();
+		try (BufferedReader in = new BomStrippingReader(
+				posTags.openStream())) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split(" ");
+				if (parts.length < 2 || parts[0].isEmpty())
+					continue;
+
+				tags.put(parts[0], parts[1]);
+			}
+		}
+		return tags;
+	}
+
+	private static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		byte[] bytes = new byte[readCount(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: java " + CompiledModel.class.getName()
+					+ " <rules> <pos_tag_dict> <model>");
+			System.exit(1);
+		}
+
+		compile(new File(args[0]).toURI().toURL(), new File(args[1]).toURI()
+				.toURL(), new File(args[2]));
+	}
+}
@@ -19,20 +19,28 @@
 
 package mark.chunking;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.NumberFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.management.JMException;
 
 import gate.Annotation;
 import gate.AnnotationSet;
+import gate.Document;
 import gate.Factory;
 import gate.FeatureMap;
 import gate.Resource;
@@ -44,19 +52,92 @@ import gate.creole.metadata.CreoleParameter;
 import gate.creole.metadata.CreoleResource;
 import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
-import gate.util.BomStrippingInputStreamReader;
+import gate.creole.metadata.Sharable;
 import gate.util.GateRuntimeException;
-import gate.util.OffsetComparator;
+
+import org.apache.log4j.Logger;
 
 @CreoleResource(name = "Noun Phrase Chunker", comment = "Implementation of the Ramshaw and Marcus base noun phrase chunker", helpURL = "http://gate.ac.uk/userguide/sec:parsers:npchunker", icon = "NpChunker")
 public class GATEWrapper extends AbstractLanguageAnalyser {
 
 	private static final long serialVersionUID = -801244032207014722L;
 
+	private static final Logger log = Logger.getLogger(GATEWrapper.class);
+
+	/**
+	 * The number of tokens, roughly, chunked in one go when the sentences of
+	 * a document are chunked together. Large enough for the cost of going
+	 * through the rules to be shared by many short sentences, but small
+	 * enough that the batch stays in the cache.
+	 **/
+	static final int BATCH_TOKENS = 4096;
+
+	/**
+	 * The tokens of the document being processed, kept between documents so
+	 * that its arrays can be reused.
+	 **/
+	private transient TokenSnapshot snapshot = null;
+
+	/**
+	 * The chunks found in the document being processed, kept between
+	 * documents so that its arrays can be reused.
+	 **/
+	private transient ChunkSpans spans = null;
+
+	/**
+	 * The documents this PR has chunked incrementally, each with a tracker
+	 * recording the chunks it added and what has changed since. The
+	 * documents are only weakly referenced so they can still be garbage
+	 * collected once they are no longer in use. Created when first needed as
+	 * it isn't restored when the PR is deserialized.
+	 **/
+	private transient Map<Document, ChunkTracker> trackers = null;
+
 	private Chunker c = null;
 
 	private Map<String, String> chunkTags = null;
 
+	/**
+	 * The loaded rules are immutable so when this PR is duplicated the copy
+	 * shares them rather than reading and compiling the rules again.
+	 **/
+	@Sharable
+	public void setChunker(Chunker c) {
+		this.c = c;
+	}
+
+	public Chunker getChunker() {
+		return c;
+	}
+
+	/**
+	 * The POS tag dictionary is never modified after it has been read so it is
+	 * shared with any duplicates along with the rules.
+	 **/
+	@Sharable
+	public void setChunkTags(Map<String, String> chunkTags) {
+		this.chunkTags = chunkTags;
+	}
+
+	public Map<String, String> getChunkTags() {
+		return chunkTags;
+	}
+
+	private SentenceCache cache = null;
+
+	/**
+	 * The cache, if there is one, is shared with any duplicates so that a
+	 * sentence chunked by one of them is found in the cache by all the others.
+	 **/
+	@Sharable
+	public void setSentenceCache(SentenceCache cache) {
+		this.cache = cache;
+	}
+
+	public SentenceCache getSentenceCache() {
+		return cache;
+	}
+
 	private ResourceReference posTagURL;
 
 	@CreoleParameter(defaultValue = "resources/pos_tag_dict", comment = "The URL of the pos_tag_dict file.")
@@ -97,6 +178,194 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 		return rulesURL;
 	}
 
+	private ResourceReference modelURL;
+
+	@Optional
+	@CreoleParameter(comment = "The URL of a model compiled by mark.chunking.CompiledModel which, if it is up to date, is loaded in place of the rules and pos_tag_dict files.")
+	public void setModelURL(ResourceReference modelURL) {
+		this.modelURL = modelURL;
+	}
+
+	public ResourceReference getModelURL() {
+		return modelURL;
+	}
+
+	private Boolean collectStatistics;
+
+	@Optional
+	@CreoleParameter(defaultValue = "false", comment = "Collect statistics about what each rule does and make them available over JMX.")
+	public void setCollectStatistics(Boolean collectStatistics) {
+		this.collectStatistics = collectStatistics;
+	}
+
+	public Boolean getCollectStatistics() {
+		return collectStatistics;
+	}
+
+	/**
+	 * The rule statistics, if we registered them as an MBean. They belong to
+	 * the rules so are shared with any duplicates, as is the MBean.
+	 **/
+	private transient RuleStatistics statistics = null;
+
+	private Integer cacheSize;
+
+	@Optional
+	@CreoleParameter(defaultValue = "0", comment = "The number of sentences whose chunk tags are cached so that repeated sentences don't have to be chunked again, 0 to disable the cache.")
+	public void setCacheSize(Integer cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public Integer getCacheSize() {
+		return cacheSize;
+	}
+
+	private CacheEviction cacheEviction;
+
+	@Optional
+	@CreoleParameter(defaultValue = "LRU", comment = "Which sentence to throw away when the cache is full.")
+	public void setCacheEviction(CacheEviction cacheEviction) {
+		this.cacheEviction = cacheEviction;
+	}
+
+	public CacheEviction getCacheEviction() {
+		return cacheEviction;
+	}
+
+	/**
+	 * True if we registered the sentence cache as an MBean.
+	 **/
+	private transient boolean cacheRegistered = false;
+
+	private ChunkerEngine engine;
+
+	@CreoleParameter(defaultValue = "COMPILED", comment = "The engine used to apply the rules, all engines produce the same output.")
+	public void setEngine(ChunkerEngine engine) {
+		this.engine = engine;
+	}
+
+	public ChunkerEngine getEngine() {
+		return engine;
+	}
+
+	private Boolean parallel;
+
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "false", comment = "Chunk the sentences of each document in parallel using the common fork-join pool.")
+	public void setParallel(Boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public Boolean getParallel() {
+		return parallel;
+	}
+
+	private Boolean incremental;
+
+	/**
+	 * Chunking a document incrementally means that when the same document is
+	 * processed again only the sentences whose tokens have changed are
+	 * chunked, replacing just the chunks added for them last time. The
+	 * changes are only tracked by this PR, so a document shouldn't be
+	 * processed incrementally by more than one duplicate.
+	 **/
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "false", comment = "When a document is processed again only re-chunk the sentences which have changed since it was last processed.")
+	public void setIncremental(Boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	public Boolean getIncremental() {
+		return incremental;
+	}
+
+	private Boolean shareFeatures;
+
+	/**
+	 * GATE stores the feature map given to each annotation rather than a
+	 * copy, so sharing one empty map between all the chunks added to a
+	 * document by one run saves creating a map for each of them. The catch
+	 * is that a feature added to one chunk is then seen on all the others
+	 * added by the same run, so this is only safe when nothing later in the
+	 * pipeline adds features to the chunks.
+	 **/
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "false", comment = "Give all the chunks added to a document the same empty feature map. Only safe if nothing adds features to the chunks afterwards.")
+	public void setShareFeatures(Boolean shareFeatures) {
+		this.shareFeatures = shareFeatures;
+	}
+
+	public Boolean getShareFeatures() {
+		return shareFeatures;
+	}
+
+	private OutputMode outputMode;
+
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "ANNOTATIONS", comment = "Whether to add chunk annotations, a feature holding the chunk tag to each token, or both.")
+	public void setOutputMode(OutputMode outputMode) {
+		this.outputMode = outputMode;
+	}
+
+	public OutputMode getOutputMode() {
+		return outputMode;
+	}
+
+	private String tagFeature;
+
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "chunk", comment = "The name of the token feature which holds the chunk tag, when the output mode includes token features.")
+	public void setTagFeature(String tagFeature) {
+		this.tagFeature = tagFeature;
+	}
+
+	public String getTagFeature() {
+		return tagFeature;
+	}
+
+	private Integer windowLimit;
+
+	/**
+	 * When chunking in parallel, a sentence with more tokens than this, as
+	 * often happens with tables, lists or OCR output, is split into windows
+	 * of no more than this many tokens which are chunked in parallel. The
+	 * tags of a windowed sentence can, in rare cases, differ from those
+	 * given by chunking it whole (see {@link SentenceWindows}) so this is
+	 * off, 0, by default, leaving parallel chunking to give exactly the same
+	 * output as sequential chunking unless a limit is set. When parallel is
+	 * false this, and the halo, are ignored and every sentence is chunked
+	 * whole: on a single thread the windows would only add the work of
+	 * chunking their halos.
+	 **/
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "0", comment = "When chunking in parallel, sentences with more tokens than this are split into windows which are chunked in parallel, 0 to never split sentences. The tags of a split sentence may occasionally differ from those of chunking it whole. Ignored unless parallel is true.")
+	public void setWindowLimit(Integer windowLimit) {
+		this.windowLimit = windowLimit;
+	}
+
+	public Integer getWindowLimit() {
+		return windowLimit;
+	}
+
+	private Integer windowHalo;
+
+	@RunTime
+	@Optional
+	@CreoleParameter(defaultValue = "100", comment = "The number of tokens either side of a window of a long sentence which are chunked along with it so that the window gets the same chunk tags as it would if the whole sentence were chunked. Ignored unless parallel is true.")
+	public void setWindowHalo(Integer windowHalo) {
+		this.windowHalo = windowHalo;
+	}
+
+	public Integer getWindowHalo() {
+		return windowHalo;
+	}
+
 	private String posFeature;
 
 	@RunTime
@@ -183,31 +452,51 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 					"POS tag dictionary URL must be specified");
 		}
 
-		try (BufferedReader in = new BomStrippingInputStreamReader(
-				posTagURL.openStream())) {
-			// lets create a new Chunker using the URL provided (which we know
-			// is not null as we already checked it).
-			c = new Chunker(rulesURL.toURL());
-
-			// read in the first line of the file
-			String line = in.readLine();
-
-			// create a new empty map to hold the pos and chunk tags
-			chunkTags = new HashMap<String, String>();
+		if (c != null && chunkTags != null) {
+			// we are a duplicate and have been given the rules and
+			// dictionary already loaded by the original so all we need to
+			// do is count ourselves as another user of their MBeans
+			registerStatistics();
+			createCache();
+			return this;
+		}
 
-			while (line != null) {
-				// while there is still data in the file...
+		if (modelURL != null) {
+			try {
+				// try and load the compiled model, which is much quicker than
+				// parsing the text files, as long as it was compiled from the
+				// current version of the text files
+				CompiledModel model = CompiledModel.read(modelURL.toURL());
+				if (model.isUpToDate(rulesURL.toURL(), posTagURL.toURL())) {
+					c = model.createChunker(engine == null ? ChunkerEngine.COMPILED
+							: engine);
+					chunkTags = model.getChunkTags();
+					registerStatistics();
+					createCache();
+					return this;
+				}
 
-				// split the current line into two parts
-				String[] tags = line.split(" ");
+				log.warn("The compiled model " + modelURL
+						+ " is out of date, loading the rules from " + rulesURL);
+			} catch (IOException e) {
+				// the compiled model is missing or broken so we fall back to
+				// reading the text files, but say so as otherwise a broken
+				// model would go unnoticed
+				log.warn("Unable to load the compiled model " + modelURL
+						+ ", loading the rules from " + rulesURL, e);
+			}
+		}
 
-				// put the data in the map, POS tags as key
-				// chunk tag as value
-				chunkTags.put(tags[0], tags[1]);
+		try {
+			// lets create a new Chunker using the URL provided (which we know
+			// is not null as we already checked it).
+			c = new Chunker(rulesURL.toURL(),
+					engine == null ? ChunkerEngine.COMPILED : engine);
 
-				// get the next line from the data file
-				line = in.readLine();
-			}
+			// the map may end up shared with duplicates so make sure
+			// nothing can change it
+			chunkTags = Collections.unmodifiableMap(CompiledModel
+					.readChunkTags(posTagURL.toURL()));
 		} catch (IOException e) {
 			// if an error occurred then throw an exception so that the user
 			// knows
@@ -215,11 +504,150 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 					"Unable to correctly init the chunker: " + e.getMessage());
 		}
 
+		registerStatistics();
+		createCache();
+
 		// if we get to here then everything has initialised correctly
 		// so return this instance
 		return this;
 	}
 
+	/**
+	 * If requested, starts collecting statistics about the rules and
+	 * registers them as an MBean so they can be watched over JMX.
+	 **/
+	private void registerStatistics() throws ResourceInstantiationException {
+		if (collectStatistics == null || !collectStatistics)
+			return;
+
+		// a duplicate gets the statistics already being collected by the
+		// rules it shares with the original
+		RuleStatistics enabled = c.enableStatistics();
+		register("RuleStatistics", enabled);
+		statistics = enabled;
+	}
+
+	/**
+	 * If requested, creates the sentence cache and registers it as an MBean
+	 * so the hits and misses can be watched over JMX. Duplicates are given the
+	 * cache of the original and share its MBean.
+	 **/
+	private void createCache() throws ResourceInstantiationException {
+		if (cache == null) {
+			if (cacheSize == null || cacheSize <= 0)
+				return;
+
+			cache = new SentenceCache(cacheSize,
+					cacheEviction == null ? CacheEviction.LRU : cacheEviction);
+		}
+
+		register("SentenceCache", cache);
+		cacheRegistered = true;
+	}
+
+	/**
+	 * Registers an MBean, named after this PR unless a duplicate has already
+	 * registered it, in which case we are simply counted as another user of
+	 * it.
+	 **/
+	private void register(String type, Object mbean)
+			throws ResourceInstantiationException {
+		try {
+			SharedMBeans.register(type, getName(), mbean);
+		} catch (JMException e) {
+			throw new ResourceInstantiationException("Unable to register the "
+					+ type + " MBean", e);
+		}
+	}
+
+	/**
+	 * Stops using the MBeans for the rule statistics and the sentence cache,
+	 * if we registered them, which removes them once no duplicate is using
+	 * them either.
+	 **/
+	private void unregisterMBeans() {
+		if (statistics != null)
+			SharedMBeans.unregister(statistics);
+		if (cacheRegistered)
+			SharedMBeans.unregister(cache);
+
+		statistics = null;
+		cacheRegistered = false;
+	}
+
+	public void reInit() throws ResourceInstantiationException {
+		// forget the rules, dictionary and cache, which may be shared with
+		// other duplicates, so that init reads the files again
+		unregisterMBeans();
+		c = null;
+		chunkTags = null;
+		cache = null;
+		snapshot = null;
+		spans = null;
+		stopTracking();
+		super.reInit();
+	}
+
+	public void cleanup() {
+		// drop our references to the (possibly shared) rules, dictionary and
+		// cache
+		unregisterMBeans();
+		c = null;
+		chunkTags = null;
+		cache = null;
+		snapshot = null;
+		spans = null;
+		stopTracking();
+		super.cleanup();
+	}
+
+	/**
+	 * Stops tracking the changes to every document.
+	 **/
+	private void stopTracking() {
+		if (trackers == null)
+			return;
+
+		for (ChunkTracker tracker : trackers.values())
+			tracker.detach();
+		trackers.clear();
+	}
+
+	/**
+	 * Returns everything, other than the input, which affects the chunks
+	 * added to a document.
+	 **/
+	private Object getTrackedSettings() {
+		return Arrays.<Object> asList(outputASName, annotationName,
+				outputMode, tagFeature, posFeature, unknownTag, c, chunkTags);
+	}
+
+	/**
+	 * Returns the tracker for the current document if it can be used to
+	 * chunk the document incrementally. If it can't be used, because we
+	 * aren't chunking incrementally or the settings have changed, then we
+	 * stop tracking the document and remove the chunks it recorded from the
+	 * output set, as the whole document is about to be chunked again.
+	 **/
+	private ChunkTracker getTracker(AnnotationSet inputAS,
+			AnnotationSet outputAS) {
+		if (trackers == null)
+			trackers = new WeakHashMap<Document, ChunkTracker>();
+
+		ChunkTracker tracker = trackers.get(document);
+		if (tracker == null)
+			return null;
+
+		if (incremental != null && incremental
+				&& tracker.isTracking(inputAS, getTrackedSettings()))
+			return tracker;
+
+		tracker.detach();
+		tracker.removeChunks(outputAS);
+		trackers.remove(document);
+		return null;
+	}
+
 	public void execute() throws ExecutionException {
 		// lets get the AnnotationSet we are using as input. Get either the
 		// set the user has asked for or if they haven't specified use the
@@ -237,11 +665,55 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 		AnnotationSet outputAS = (outputASName == null) ? document
 				.getAnnotations() : document.getAnnotations(outputASName);
 
-		// Get the set of sentences contained within the current document
-		AnnotationSet sentences = inputAS.get(SENTENCE_ANNOTATION_TYPE);
+		Collection<Annotation> sentences;
+		Collection<Annotation> tokenas;
+
+		// if we've chunked this document before, and are still tracking
+		// it, then only the sentences which have changed since need to be
+		// chunked again
+		ChunkTracker tracker = getTracker(inputAS, outputAS);
+		if (tracker != null) {
+			sentences = new ArrayList<Annotation>();
+			Set<Annotation> tokens = new HashSet<Annotation>();
+
+			for (Integer id : tracker.takeDirty()) {
+				// remove the chunks we added for the sentence last time
+				int[] chunks = tracker.forget(id);
+				if (chunks != null) {
+					for (int chunk : chunks) {
+						Annotation annotation = outputAS.get(chunk);
+						if (annotation != null)
+							outputAS.remove(annotation);
+					}
+				}
 
-		// All annotations of type tokens
-		AnnotationSet tokenas = inputAS.get(TOKEN_ANNOTATION_TYPE);
+				// and if the sentence is still there then chunk it again
+				Annotation sentence = inputAS.get(id);
+				if (sentence != null) {
+					sentences.add(sentence);
+					tokens.addAll(inputAS.get(TOKEN_ANNOTATION_TYPE, sentence
+							.getStartNode().getOffset(), sentence.getEndNode()
+							.getOffset()));
+				}
+			}
+
+			tokenas = tokens;
+		} else {
+			// Get the set of sentences contained within the current document
+			sentences = inputAS.get(SENTENCE_ANNOTATION_TYPE);
+
+			// All annotations of type tokens
+			tokenas = inputAS.get(TOKEN_ANNOTATION_TYPE);
+
+			// start tracking the document so that the next run can be
+			// incremental, although it is only remembered once it has been
+			// chunked successfully
+			if (incremental != null && incremental && sentences != null
+					&& sentences.size() > 0) {
+				tracker = new ChunkTracker(inputAS, outputAS,
+						getTrackedSettings());
+			}
+		}
 
 		if (sentences != null && sentences.size() > 0) {
 			// assuming there are sentences...
@@ -257,118 +729,145 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 			// so remember this ready for the progress feedback
 			int i = 0;
 
-			// Loop through all the sentences
-			Iterator<Annotation> sit = sentences.iterator();
-			while (sit.hasNext()) {
-				// get the current sentence to process
-				Annotation sentence = sit.next();
-
-				// Get a sorted list of the tokens within the current sentence
-				List<Annotation> tokens = new ArrayList<Annotation>();
-				tokens.addAll(tokenas.getContained(sentence.getStartNode()
-						.getOffset(), sentence.getEndNode().getOffset()));
-				Collections.sort(tokens, new OffsetComparator());
-
-				// Create three empty lists to hold the words, pos and chunk
-				// tags of the tokens in the current sentence
-				List<String> wl = new ArrayList<String>();
-				List<String> tl = new ArrayList<String>();
-				List<String> pl = new ArrayList<String>();
-
-				// Loop through all the tokens in the current sentence
-				Iterator<Annotation> tit = tokens.iterator();
-				while (tit.hasNext()) {
-					// get the current token to process
-					Annotation token = tit.next();
-
-					// add the string spanned by the current token to the list
-					// of
-					// words
-					wl.add((String) token.getFeatures().get("string"));
-
-					// get the POS tag for the current token
-					String pos = (String) token.getFeatures().get(posFeature);
-
-					// add the POS tag to the list of POS tags
-					pl.add(pos);
-
-					// get the initial chunk tag for this POS tag
-					String chunkTag = chunkTags.get(pos);
-
-					// if the chunk tag is null then use the unknown chunk tag
-					if (chunkTag == null)
-						chunkTag = unknownTag;
-
-					// now add the chunk tag to the list of chunk tags
-					tl.add(chunkTag);
+			// copy everything we need to know about the tokens into arrays
+			// in one pass, encoding them ready for the chunker
+			if (snapshot == null) {
+				snapshot = new TokenSnapshot();
+				spans = new ChunkSpans();
+			}
+			// the batches submitted to the pool and not yet annotated
+			Deque<ForkJoinTask<?>> tasks = new ArrayDeque<ForkJoinTask<?>>();
+
+			// whether every sentence was chunked and its chunks added
+			boolean completed = false;
+
+			try {
+				snapshot.read(tokenas, posFeature, c, chunkTags, unknownTag);
+				spans.clear();
+
+				// find the tokens within every sentence in one go, rather
+				// than querying and sorting the tokens of each sentence in
+				// turn
+				long[] sentenceStart = new long[sentences.size()];
+				long[] sentenceEnd = new long[sentences.size()];
+				Annotation[] sentence = sentences
+						.toArray(new Annotation[sentences.size()]);
+				int s;
+				for (s = 0; s < sentence.length; ++s) {
+					sentenceStart[s] = sentence[s].getStartNode().getOffset();
+					sentenceEnd[s] = sentence[s].getEndNode().getOffset();
 				}
-
-				// run the chunker over the current sentence and get back
-				// an updated list of chunk tags
-				tl = c.chunkSentence(wl, tl, pl);
-
-				// a variable to hold the index of the token which
-				// starts the current noun chunk
-				int start = 0;
-
-				// a flag so we know if we are in an NP or not
-				boolean inBaseNP = false;
-
-				// Loop through all the chunk tags in the current sentence
-				// so we can find the noun chunks
-				for (int tIndex = 0; tIndex < tl.size(); ++tIndex) {
-					// get the current chunk tag
-					String ct = tl.get(tIndex);
-
-					if (inBaseNP) {
-						// if we are currently inside a noun chunk then...
-
-						if (ct.equals("B")) {
-							// if the chunk tag is "B" then we are about to
-							// start a
-							// new chunk so record the one that has just
-							// finished
-							addAnnotation(outputAS, tokens, start, tIndex - 1);
-
-							// now reset the beginning of the chunk to the
-							// current
-							// token
-							start = tIndex;
-						} else if (ct.equals("O")) {
-							// if the chunk tag is "O" then we have dropped out
-							// the end of a chunk so add the chunk we just
-							// finished
-							addAnnotation(outputAS, tokens, start, tIndex - 1);
-
-							// now flag that we are outside of any chunk
-							inBaseNP = false;
-						}
+				int[][] contained = TokenAligner.align(sentenceStart,
+						sentenceEnd, snapshot.start, snapshot.end,
+						snapshot.size);
+
+				// work out what each chunk tag means for the output
+				byte[] kinds = new byte[c.getSymbols(Chunker.TAG).size()];
+				for (int id = 0; id < kinds.length; ++id)
+					kinds[id] = kind(c.getValue(Chunker.TAG, id));
+
+				// what we are going to add to the document
+				boolean addAnnotations = outputMode != OutputMode.TOKEN_FEATURES;
+				boolean addFeatures = outputMode == OutputMode.TOKEN_FEATURES
+						|| outputMode == OutputMode.BOTH;
+
+				// setting the features of the tokens mustn't make their
+				// sentences dirty
+				if (tracker != null && addFeatures)
+					tracker.setListening(false);
+
+				// the sentences are chunked in batches, each applying the
+				// rules once to all its sentences. When running in parallel
+				// the batches go to the fork-join pool, keeping a bounded
+				// queue of them in flight so that the annotations can still
+				// be added in document order by this thread
+				ForkJoinPool pool = parallel != null && parallel ? ForkJoinPool
+						.commonPool() : null;
+				int window = pool == null ? 1 : pool.getParallelism() * 4;
+
+				// when running in parallel very long sentences are split
+				// into windows which are also chunked in parallel
+				SentenceWindows windows = null;
+				if (pool != null && windowLimit != null && windowLimit > 0)
+					windows = new SentenceWindows(c, windowLimit,
+							windowHalo == null ? SentenceWindows.DEFAULT_HALO
+									: windowHalo);
+				Deque<Batch> batches = new ArrayDeque<Batch>();
+
+				int next = 0;
+				while (next < contained.length || !batches.isEmpty()) {
+					if (next < contained.length && batches.size() < window) {
+						Batch batch = new Batch(contained, next, windows);
+						next = batch.end;
+
+						batches.add(batch);
+						if (pool == null)
+							batch.run();
+						else
+							tasks.add(pool.submit(batch));
 					} else {
-						// we aren't currently in a noun chunk so...
-
-						if (ct.equals("B") || ct.equals("I")) {
-							// if the chunk tag is "B" or "I" then we have found
-							// the beginning of a chunk, so....
-
-							// record the start index
-							start = tIndex;
+						// wait for the oldest batch and annotate it
+						Batch batch = batches.remove();
+						if (pool != null) {
+							try {
+								tasks.remove().join();
+							} catch (RuntimeException e) {
+								throw new ExecutionException(e);
+							}
+						}
 
-							// and flag that we are now inside a chunk
-							inBaseNP = true;
+						int offset = 0;
+						for (s = batch.first; s < batch.end; ++s) {
+							if (addFeatures)
+								addTagFeatures(contained[s], batch.result,
+										offset);
+							if (addAnnotations)
+								findChunks(contained[s], batch.result,
+										offset, kinds);
+							spans.endSentence();
+							offset += contained[s].length;
+
+							// update the progress stuff to show the
+							// precentage of sentences we have processed so
+							// far
+							fireProgressChanged(i++ * 100 / sentence.length);
 						}
 					}
 				}
 
-				if (inBaseNP) {
-					// if we got to the end of a sentence and we are still in a
-					// noun chunk then we need to close the end and add the
-					// annotation
-					addAnnotation(outputAS, tokens, start, tl.size() - 1);
-				}
+				// now add all the chunks we've found to the document
+				if (addAnnotations)
+					addChunks(outputAS, sentence, tracker);
+
+				completed = true;
+			} finally {
+				// if a batch failed then the rest may still be running, and
+				// they read the snapshot which the next document will refill,
+				// so stop them and wait for any already started to finish
+				for (ForkJoinTask<?> task : tasks)
+					task.cancel(false);
+				for (ForkJoinTask<?> task : tasks)
+					task.quietlyJoin();
 
-				// update the progress stuff to show the precentage of sentences
-				// we have processed so far
-				fireProgressChanged(i++ * 100 / sentences.size());
+				// don't hang on to the document between calls
+				snapshot.clear();
+
+				if (tracker != null) {
+					tracker.setListening(true);
+
+					if (completed) {
+						trackers.put(document, tracker);
+					} else {
+						// the dirty sentences have been taken, and some of
+						// their old chunks removed, so the tracker no longer
+						// knows what needs chunking again. Forget it and the
+						// chunks it recorded so that the next run chunks the
+						// whole document
+						tracker.detach();
+						tracker.removeChunks(outputAS);
+						trackers.remove(document);
+					}
+				}
 			}
 
 			// we have finished! so update the progress and tell
@@ -380,6 +879,9 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 							.getInstance()
 							.format((double) (System.currentTimeMillis() - startTime) / 1000)
 					+ " seconds!");
+		} else if (tracker != null) {
+			// nothing we chunked has changed since the last run
+			fireProcessFinished();
 		} else if (failOnMissingInputAnnotations) {
 			// if there are no sentence annotations then throw an exception as
 			// theres
@@ -389,28 +891,260 @@ public class GATEWrapper extends AbstractLanguageAnalyser {
 		}
 	}
 
-	private void addAnnotation(AnnotationSet outputAS, List<Annotation> tokens,
-			int start, int end) {
-		// Create a new FeatureMap to act as the features for the new
-		// annotation
-		// but we will leave it blank for now as we don't have anything to
-		// add
-		FeatureMap params = Factory.newFeatureMap();
+	/**
+	 * A run of consecutive sentences, of roughly {@link #BATCH_TOKENS}
+	 * tokens in total, which are chunked together. Chunking a batch only
+	 * reads the token snapshot so different batches can be chunked at the
+	 * same time.
+	 **/
+	private final class Batch implements Runnable {
+
+		/**
+		 * The tokens of every sentence of the document.
+		 **/
+		private final int[][] contained;
+
+		/**
+		 * The index of the first sentence in the batch.
+		 **/
+		final int first;
+
+		/**
+		 * The index after the last sentence in the batch.
+		 **/
+		final int end;
+
+		/**
+		 * The updated chunk tags of the tokens of every sentence in the
+		 * batch, one sentence after another.
+		 **/
+		int[] result;
+
+		/**
+		 * Used to split a long sentence into windows, or null if long
+		 * sentences are chunked whole.
+		 **/
+		private final SentenceWindows windows;
+
+		Batch(int[][] contained, int first, SentenceWindows windows) {
+			this.contained = contained;
+			this.first = first;
+			this.windows = windows;
+
+			// a sentence long enough to be split into windows is always
+			// chunked in a batch of its own
+			int tokens = 0;
+			int s = first;
+			while (s < contained.length && tokens < BATCH_TOKENS
+					&& (s == first || !isLong(contained[s])))
+				tokens += contained[s++].length;
+			end = s;
+		}
 
-		// Get the token annotation from the beginning of the chunk
-		Annotation aStart = tokens.get(start);
+		private boolean isLong(int[] sentence) {
+			return windows != null && windows.isLong(sentence.length);
+		}
 
-		// Get the token annotation from the end of the chunk
-		Annotation aEnd = tokens.get(end);
+		@Override
+		public void run() {
+			int count = end - first;
+			int[] lengths = new int[count];
+			int total = 0;
+			for (int s = 0; s < count; ++s) {
+				lengths[s] = contained[first + s].length;
+				total += lengths[s];
+			}
 
-		// This spots errors where the start is after the end. What
-		// we should do is figure out why this occurs in the first place
-		if (aStart.getStartNode().getOffset().longValue() >= aEnd.getEndNode()
-				.getOffset().longValue())
-			return;
+			// gather the encoded tokens of the sentences one after another
+			int[] words = new int[total];
+			int[] pos = new int[total];
+			result = new int[total];
+			int i = 0;
+			for (int s = first; s < end; ++s) {
+				for (int token : contained[s]) {
+					words[i] = snapshot.words[token];
+					pos[i] = snapshot.pos[token];
+					result[i++] = snapshot.tags[token];
+				}
+			}
+
+			if (count == 1 && isLong(contained[first])) {
+				// chunk the windows of the sentence in parallel
+				windows.chunkSentence(words, result, pos, 0, total, result);
+			} else if (cache == null) {
+				c.chunkDocument(words, result, pos, lengths, count, result);
+			} else {
+				// each sentence is looked up in the cache on its own
+				int offset = 0;
+				for (int length : lengths) {
+					cache.chunkSentence(c, words, result, pos, offset,
+							length, result);
+					offset += length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The kind of each chunk tag: not one the output cares about,
+	 * beginning a chunk, inside a chunk, or outside any chunk.
+	 **/
+	private static final byte OTHER = 0, BEGIN = 1, INSIDE = 2, OUTSIDE = 3;
+
+	/**
+	 * Returns the kind of a chunk tag.
+	 **/
+	private static byte kind(String tag) {
+		if (tag.equals("B"))
+			return BEGIN;
+		if (tag.equals("I"))
+			return INSIDE;
+		if (tag.equals("O"))
+			return OUTSIDE;
+		return OTHER;
+	}
+
+	/**
+	 * Sets a feature of each token in a sentence to its chunk tag.
+	 * 
+	 * @param tokens
+	 *            the indexes, in the token snapshot, of the tokens in the
+	 *            sentence.
+	 * @param tl
+	 *            the updated chunk tag ids of the sentence, starting at
+	 *            offset.
+	 **/
+	private void addTagFeatures(int[] tokens, int[] tl, int offset) {
+		for (int tIndex = 0; tIndex < tokens.length; ++tIndex) {
+			// a tag without an id is still the initial tag of the token
+			int id = tl[offset + tIndex];
+			String tag = id == Chunker.UNKNOWN ? snapshot.getInitialTag(c,
+					tokens[tIndex]) : c.getValue(Chunker.TAG, id);
+
+			snapshot.annotations[tokens[tIndex]].getFeatures().put(
+					tagFeature, tag);
+		}
+	}
+
+	/**
+	 * Finds the noun chunks marked by the chunk tags of a sentence and adds
+	 * them to the current sentence of {@link #spans}.
+	 * 
+	 * @param tokens
+	 *            the indexes, in the token snapshot, of the tokens in the
+	 *            sentence.
+	 * @param tl
+	 *            the updated chunk tag ids of the sentence, starting at
+	 *            offset.
+	 * @param kinds
+	 *            the kind of each chunk tag id.
+	 **/
+	private void findChunks(int[] tokens, int[] tl, int offset, byte[] kinds) {
+		// a variable to hold the index of the token which
+		// starts the current noun chunk
+		int start = 0;
+
+		// a flag so we know if we are in an NP or not
+		boolean inBaseNP = false;
+
+		// Loop through all the chunk tags in the current sentence
+		// so we can find the noun chunks
+		for (int tIndex = 0; tIndex < tokens.length; ++tIndex) {
+			// get the kind of the current chunk tag, a tag without an id
+			// can't have been changed by the rules so is still the initial
+			// tag of the token
+			int id = tl[offset + tIndex];
+			byte ct = id == Chunker.UNKNOWN ? kind(snapshot.getInitialTag(c,
+					tokens[tIndex])) : kinds[id];
+
+			if (inBaseNP) {
+				// if we are currently inside a noun chunk then...
+
+				if (ct == BEGIN) {
+					// if the chunk tag is "B" then we are about to start a
+					// new chunk so record the one that has just finished
+					spans.add(tokens[start], tokens[tIndex - 1]);
+
+					// now reset the beginning of the chunk to the current
+					// token
+					start = tIndex;
+				} else if (ct == OUTSIDE) {
+					// if the chunk tag is "O" then we have dropped out
+					// the end of a chunk so add the chunk we just
+					// finished
+					spans.add(tokens[start], tokens[tIndex - 1]);
+
+					// now flag that we are outside of any chunk
+					inBaseNP = false;
+				}
+			} else {
+				// we aren't currently in a noun chunk so...
+
+				if (ct == BEGIN || ct == INSIDE) {
+					// if the chunk tag is "B" or "I" then we have found
+					// the beginning of a chunk, so....
 
-		// add a new annotation to mark the noun chunk
-		outputAS.add(aStart.getStartNode(), aEnd.getEndNode(), annotationName,
-				params);
+					// record the start index
+					start = tIndex;
+
+					// and flag that we are now inside a chunk
+					inBaseNP = true;
+				}
+			}
+		}
+
+		if (inBaseNP) {
+			// if we got to the end of a sentence and we are still in a
+			// noun chunk then we need to close the end and add the
+			// annotation
+			spans.add(tokens[start], tokens[tokens.length - 1]);
+		}
+	}
+
+	/**
+	 * Adds an annotation for each of the chunks in {@link #spans}.
+	 * 
+	 * @param sentence
+	 *            the sentences the chunks were found in.
+	 * @param tracker
+	 *            if not null the chunks added for each sentence are
+	 *            recorded in it.
+	 **/
+	private void addChunks(AnnotationSet outputAS, Annotation[] sentence,
+			ChunkTracker tracker) {
+		// the chunks don't have any features so, if we've been asked to,
+		// they all share the one empty map rather than each having its own
+		FeatureMap shared = shareFeatures != null && shareFeatures ? Factory
+				.newFeatureMap() : null;
+
+		int chunk = 0;
+		for (int s = 0; s < spans.sentences; ++s) {
+			int end = spans.sentenceEnd[s];
+			int[] ids = tracker == null ? null : new int[end - chunk];
+			int added = 0;
+
+			for (; chunk < end; ++chunk) {
+				int first = spans.first[chunk];
+				int last = spans.last[chunk];
+
+				// This spots errors where the start is after the end. What
+				// we should do is figure out why this occurs in the first
+				// place
+				if (snapshot.start[first] >= snapshot.end[last])
+					continue;
+
+				// add a new annotation to mark the noun chunk
+				Integer id = outputAS.add(snapshot.startNodes[first],
+						snapshot.endNodes[last], annotationName,
+						shared != null ? shared : Factory.newFeatureMap());
+				if (ids != null)
+					ids[added++] = id;
+			}
+
+			// remember the chunks so that we can replace them if the
+			// sentence changes
+			if (tracker != null)
+				tracker.chunked(sentence[s].getId(), Arrays.copyOf(ids, added));
+		}
 	}
 }
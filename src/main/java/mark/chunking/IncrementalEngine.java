@@ -0,0 +1,513 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The engine behind {@link ChunkerEngine#INCREMENTAL}. The W and P parts of a
+ * rule never change while a sentence is chunked. Each distinct (column,
+ * offset, value) they test is turned, once per sentence and only if a rule
+ * needs it, into a bitset of the positions at which it holds. Rules that use
+ * the same test share the bitset, and matching the W and P parts of a rule is
+ * then just a few word-wide ANDs (and ORs for parts with several offsets).
+ * <p>
+ * The T parts are also shared between many rules (there are only a few dozen
+ * distinct combinations) and whether each combination holds at each position
+ * is cached in the same way. Rather than re-checking the T parts after every
+ * rule, only the positions within the window of a tag that a rule actually
+ * changed are brought up to date.
+ **/
+class IncrementalEngine extends RuleEngine<IncrementalEngine.Scratch> {
+	private static final long serialVersionUID = 7705416244730569317L;
+
+	/**
+	 * For each rule, its W and P parts each given as the indexes of the
+	 * static predicates for the offsets of the part, any one of which must
+	 * hold.
+	 **/
+	private final int[][][] staticParts;
+
+	/**
+	 * The column each static predicate tests.
+	 **/
+	private final int[] staticColumn;
+
+	/**
+	 * The offset each static predicate tests.
+	 **/
+	private final int[] staticOffset;
+
+	/**
+	 * The value each static predicate tests for.
+	 **/
+	private final int[] staticValue;
+
+	/**
+	 * The index of the T predicate of each rule, or -1 if a rule has no T
+	 * parts.
+	 **/
+	private final int[] predicateOf;
+
+	/**
+	 * The offsets of each part of each T predicate.
+	 **/
+	private final int[][][] offsets;
+
+	/**
+	 * The chunk tag id each part of each T predicate requires.
+	 **/
+	private final int[][] values;
+
+	/**
+	 * The smallest offset used by each T predicate.
+	 **/
+	private final int[] minOffset;
+
+	/**
+	 * The largest offset used by each T predicate.
+	 **/
+	private final int[] maxOffset;
+
+	IncrementalEngine(List<Rule> rules) {
+		super(rules);
+
+		predicateOf = new int[this.rules.length];
+		staticParts = new int[this.rules.length][][];
+
+		// find the distinct static predicates used by the rules
+		Map<String, Integer> tests = new HashMap<String, Integer>();
+		List<int[]> testsOf = new ArrayList<int[]>();
+		for (int r = 0; r < this.rules.length; ++r) {
+			Rule rule = this.rules[r];
+
+			List<int[]> parts = new ArrayList<int[]>();
+			for (int i = 0; i < rule.getPartCount(); ++i) {
+				if (rule.getColumn(i) == Chunker.TAG)
+					continue;
+
+				int[] ofs = rule.getOffsets(i);
+				int[] part = new int[ofs.length];
+				for (int j = 0; j < ofs.length; ++j) {
+					int[] test = { rule.getColumn(i), ofs[j],
+							rule.getValueId(i) };
+					String key = Arrays.toString(test);
+					Integer index = tests.get(key);
+					if (index == null) {
+						index = testsOf.size();
+						tests.put(key, index);
+						testsOf.add(test);
+					}
+					part[j] = index;
+				}
+				parts.add(part);
+			}
+
+			staticParts[r] = parts.toArray(new int[parts.size()][]);
+		}
+
+		staticColumn = new int[testsOf.size()];
+		staticOffset = new int[testsOf.size()];
+		staticValue = new int[testsOf.size()];
+		for (int i = 0; i < testsOf.size(); ++i) {
+			staticColumn[i] = testsOf.get(i)[0];
+			staticOffset[i] = testsOf.get(i)[1];
+			staticValue[i] = testsOf.get(i)[2];
+		}
+
+		Map<String, Integer> known = new HashMap<String, Integer>();
+		List<int[][]> offsetsOf = new ArrayList<int[][]>();
+		List<int[]> valuesOf = new ArrayList<int[]>();
+
+		for (int r = 0; r < this.rules.length; ++r) {
+			Rule rule = this.rules[r];
+
+			// collect the T parts of the rule
+			List<int[]> ofs = new ArrayList<int[]>();
+			List<Integer> vals = new ArrayList<Integer>();
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < rule.getPartCount(); ++i) {
+				if (rule.getColumn(i) == Chunker.TAG) {
+					ofs.add(rule.getOffsets(i));
+					vals.add(rule.getValueId(i));
+					key.append(Arrays.toString(rule.getOffsets(i))).append('=')
+							.append(rule.getValueId(i)).append(' ');
+				}
+			}
+
+			if (ofs.isEmpty()) {
+				predicateOf[r] = -1;
+				continue;
+			}
+
+			// rules with the same T parts share a predicate
+			Integer predicate = known.get(key.toString());
+			if (predicate == null) {
+				predicate = offsetsOf.size();
+				known.put(key.toString(), predicate);
+
+				int[] v = new int[vals.size()];
+				for (int i = 0; i < v.length; ++i)
+					v[i] = vals.get(i);
+
+				offsetsOf.add(ofs.toArray(new int[ofs.size()][]));
+				valuesOf.add(v);
+			}
+
+			predicateOf[r] = predicate;
+		}
+
+		offsets = offsetsOf.toArray(new int[offsetsOf.size()][][]);
+		values = valuesOf.toArray(new int[valuesOf.size()][]);
+		minOffset = new int[offsets.length];
+		maxOffset = new int[offsets.length];
+		for (int p = 0; p < offsets.length; ++p) {
+			minOffset[p] = Integer.MAX_VALUE;
+			maxOffset[p] = Integer.MIN_VALUE;
+			for (int[] ofs : offsets[p]) {
+				for (int offset : ofs) {
+					minOffset[p] = Math.min(minOffset[p], offset);
+					maxOffset[p] = Math.max(maxOffset[p], offset);
+				}
+			}
+		}
+	}
+
+	@Override
+	Scratch newScratch() {
+		return new Scratch();
+	}
+
+	@Override
+	void apply(Workspace workspace, Scratch scratch, int numTokens) {
+		int[][] sentence = workspace.sentence;
+		int[] tags = sentence[Chunker.TAG];
+		int[] matches = workspace.matches;
+		AnchorIndex index = workspace.index;
+
+		index.index(sentence, numTokens);
+		scratch.start(offsets.length, staticValue.length, numTokens,
+				workspace.capacity());
+
+		long[] candidates = scratch.candidates;
+		RuleCounters counters = workspace.counters;
+
+		rules : for (int r = 0; r < rules.length; ++r) {
+			Rule rule = rules[r];
+
+			// the range of positions at which the rule fits in the sentence
+			int from = Math.max(0, -rule.getBegin());
+			int to = Math.min(numTokens - 1, numTokens - 1 - rule.getEnd());
+			if (from > to)
+				continue;
+
+			// if the value of a W or P part doesn't occur anywhere in the
+			// sentence then the rule can't match
+			for (int[] part : staticParts[r]) {
+				if (index.count(staticColumn[part[0]], staticValue[part[0]]) == 0) {
+					++workspace.skipped;
+					continue rules;
+				}
+			}
+
+			if (counters != null)
+				counters.startRule(workspace.tried);
+
+			int first = from >>> 6;
+			int last = to >>> 6;
+			for (int w = first; w <= last; ++w)
+				candidates[w] = -1L;
+			candidates[first] &= -1L << from;
+			candidates[last] &= -1L >>> (63 - (to & 63));
+
+			// AND together the bitsets for each of the W and P parts
+			for (int[] part : staticParts[r]) {
+				if (part.length == 1) {
+					long[] bits = staticBits(workspace, scratch, part[0],
+							numTokens);
+					for (int w = first; w <= last; ++w)
+						candidates[w] &= bits[w];
+				} else {
+					for (int w = first; w <= last; ++w) {
+						long any = 0;
+						for (int test : part)
+							any |= staticBits(workspace, scratch, test,
+									numTokens)[w];
+						candidates[w] &= any;
+					}
+				}
+			}
+
+			long found = 0;
+			for (int w = first; w <= last; ++w)
+				found |= candidates[w];
+
+			// building the bitsets may have tried positions for this rule
+			// so it still needs recording even though it can't match
+			if (found == 0) {
+				if (counters != null)
+					counters.endRule(r, workspace.tried, 0, 0);
+				continue;
+			}
+
+			// and then with the cached bitset for the T parts
+			int predicate = predicateOf[r];
+			if (predicate != -1) {
+				long[] holds = refresh(workspace, scratch, predicate,
+						numTokens);
+				for (int w = first; w <= last; ++w) {
+					workspace.tried += Long.bitCount(candidates[w]);
+					candidates[w] &= holds[w];
+				}
+			}
+
+			// now change the tags, remembering which actually changed
+			int matched = 0;
+			for (int w = first; w <= last; ++w) {
+				long bits = candidates[w];
+				while (bits != 0) {
+					matches[matched++] = (w << 6)
+							+ Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+				}
+			}
+
+			int newTag = rule.getNewTagId();
+			int changed = 0;
+			for (int i = 0; i < matched; ++i) {
+				if (tags[matches[i]] != newTag) {
+					tags[matches[i]] = newTag;
+					scratch.logChange(matches[i]);
+					++changed;
+				}
+			}
+
+			if (counters != null)
+				counters.endRule(r, workspace.tried, matched, changed);
+		}
+	}
+
+	/**
+	 * Returns the bitset of the positions at which a static predicate holds,
+	 * building it from the anchor index if it hasn't been used on this
+	 * sentence yet.
+	 **/
+	private long[] staticBits(Workspace workspace, Scratch scratch, int test,
+			int numTokens) {
+		long[] bits = scratch.staticBits[test];
+
+		if (scratch.staticBuilt[test] != scratch.sentenceCount) {
+			int words = (numTokens + 63) >>> 6;
+			if (bits == null || bits.length < words)
+				bits = scratch.staticBits[test] = new long[scratch.candidates.length];
+			else
+				Arrays.fill(bits, 0, words, 0L);
+
+			AnchorIndex index = workspace.index;
+			int column = staticColumn[test];
+			int value = staticValue[test];
+			int end = index.end(column, value);
+			for (int k = index.start(column, value); k < end; ++k) {
+				// the position a rule must be centered on for this
+				// token to be at the right offset
+				int i = index.position(column, k) - staticOffset[test];
+				if (i >= 0 && i < numTokens)
+					bits[i >>> 6] |= 1L << i;
+			}
+
+			workspace.tried += end - index.start(column, value);
+			scratch.staticBuilt[test] = scratch.sentenceCount;
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Brings the cached values of a T predicate up to date with the tags that
+	 * have changed since it was last used, computing it everywhere if it
+	 * hasn't been used on this sentence yet.
+	 * 
+	 * @return the bitset of the positions at which the predicate holds.
+	 **/
+	private long[] refresh(Workspace workspace, Scratch scratch,
+			int predicate, int numTokens) {
+		long[] holds = scratch.holds[predicate];
+		int[] tags = workspace.sentence[Chunker.TAG];
+
+		if (scratch.cursor[predicate] == -1) {
+			for (int i = 0; i < numTokens; ++i) {
+				set(holds, i, holds(predicate, tags, i, numTokens));
+			}
+			workspace.tried += numTokens;
+		} else {
+			int[] changes = scratch.changes;
+			for (int c = scratch.cursor[predicate]; c < scratch.changeCount; ++c) {
+				// only the positions whose window covers the changed tag
+				// can have been affected
+				int from = Math.max(0, changes[c] - maxOffset[predicate]);
+				int to = Math.min(numTokens - 1, changes[c]
+						- minOffset[predicate]);
+				for (int i = from; i <= to; ++i) {
+					set(holds, i, holds(predicate, tags, i, numTokens));
+				}
+				workspace.tried += to - from + 1;
+			}
+		}
+
+		scratch.cursor[predicate] = scratch.changeCount;
+		return holds;
+	}
+
+	/**
+	 * Checks if a T predicate holds at a position.
+	 **/
+	private boolean holds(int predicate, int[] tags, int currentToken,
+			int numTokens) {
+		for (int part = 0; part < values[predicate].length; ++part) {
+			boolean matchOffset = false;
+			for (int offset : offsets[predicate][part]) {
+				int i = currentToken + offset;
+				if (i >= 0 && i < numTokens
+						&& tags[i] == values[predicate][part]) {
+					matchOffset = true;
+					break;
+				}
+			}
+
+			if (!matchOffset)
+				return false;
+		}
+
+		return true;
+	}
+
+	private static void set(long[] bits, int i, boolean value) {
+		if (value)
+			bits[i >>> 6] |= 1L << i;
+		else
+			bits[i >>> 6] &= ~(1L << i);
+	}
+
+	/**
+	 * The bitsets of the predicates and the tags changed so far, kept by
+	 * each thread.
+	 **/
+	static final class Scratch {
+
+		/**
+		 * For each T predicate, the bitset of positions at which it holds.
+		 **/
+		long[][] holds = new long[0][];
+
+		/**
+		 * For each T predicate, the number of entries in changes it has been
+		 * brought up to date with, or -1 if it hasn't been computed for the
+		 * current sentence.
+		 **/
+		int[] cursor = new int[0];
+
+		/**
+		 * For each static predicate, the bitset of positions at which it
+		 * holds, created when first needed.
+		 **/
+		long[][] staticBits = new long[0][];
+
+		/**
+		 * For each static predicate, the value of sentenceCount when its
+		 * bitset was last built.
+		 **/
+		int[] staticBuilt = new int[0];
+
+		/**
+		 * The number of sentences started.
+		 **/
+		int sentenceCount;
+
+		/**
+		 * A scratch bitset of the positions at which a rule might match.
+		 **/
+		long[] candidates = new long[1];
+
+		/**
+		 * The positions whose chunk tags have been changed, in order.
+		 **/
+		int[] changes = new int[64];
+
+		/**
+		 * The number of entries in changes.
+		 **/
+		int changeCount;
+
+		/**
+		 * Prepares for a new sentence.
+		 * 
+		 * @param predicates
+		 *            the number of T predicates.
+		 * @param tests
+		 *            the number of static predicates.
+		 * @param numTokens
+		 *            the number of tokens in the sentence, including the end
+		 *            of sentence marker.
+		 * @param capacity
+		 *            the number of tokens the workspace can hold, which the
+		 *            bitsets are grown to fit.
+		 **/
+		void start(int predicates, int tests, int numTokens, int capacity) {
+			int words = (numTokens + 63) >>> 6;
+			if (candidates.length < words)
+				candidates = new long[Math.max(words, (capacity + 63) >>> 6)];
+
+			if (holds.length < predicates
+					|| (predicates > 0 && holds[0].length < words)) {
+				holds = new long[predicates][candidates.length];
+				cursor = new int[predicates];
+			}
+
+			if (staticBits.length < tests) {
+				staticBits = new long[tests][];
+				staticBuilt = new int[tests];
+				Arrays.fill(staticBuilt, -1);
+			}
+
+			if (sentenceCount == Integer.MAX_VALUE) {
+				// start counting again, making sure no bitset looks current
+				Arrays.fill(staticBuilt, -1);
+				sentenceCount = 0;
+			}
+			++sentenceCount;
+
+			Arrays.fill(cursor, -1);
+			changeCount = 0;
+		}
+
+		/**
+		 * Records that the chunk tag at a position has been changed.
+		 **/
+		void logChange(int position) {
+			if (changeCount == changes.length)
+				changes = Arrays.copyOf(changes, changeCount * 2);
+			changes[changeCount++] = position;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The inner loops of the {@link VectorEngine}, which evaluate a rule at a
+ * whole range of positions at once and then apply it. There is a plain
+ * implementation, {@link ScalarKernel}, and one using the SIMD instructions of
+ * the JDK Vector API which is only built by the vector profile and used on JDK
+ * 16 or later.
+ **/
+interface MatchKernel {
+
+	/**
+	 * Works out at which positions a rule matches.
+	 * 
+	 * @param columns
+	 *            the column each part of the rule is matched against.
+	 * @param ids
+	 *            the id of the value of each part.
+	 * @param offsets
+	 *            the offsets of each part.
+	 * @param sentence
+	 *            the encoded sentence, indexed first by column and then by
+	 *            token.
+	 * @param from
+	 *            the first position to try, at which the whole rule fits
+	 *            within the sentence.
+	 * @param to
+	 *            the position after the last one to try.
+	 * @param mask
+	 *            set to -1 at each position the rule matches and 0 at each
+	 *            position it doesn't.
+	 **/
+	void match(int[] columns, int[] ids, int[][] offsets, int[][] sentence,
+			int from, int to, int[] mask);
+
+	/**
+	 * Sets the chunk tag at each position that a rule matched.
+	 * 
+	 * @param mask
+	 *            the positions the rule matched, as set by
+	 *            {@link #match(int[], int[], int[][], int[][], int, int, int[])}
+	 * @param tags
+	 *            the chunk tags to update.
+	 * @param tag
+	 *            the id of the new chunk tag.
+	 * @param from
+	 *            the first position the rule was tried at.
+	 * @param to
+	 *            the position after the last one the rule was tried at.
+	 * @return the number of chunk tags which were actually changed.
+	 **/
+	int apply(int[] mask, int[] tags, int tag, int from, int to);
+}
@@ -0,0 +1,43 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+
+package mark.chunking;
+
+/**
+ * What {@link GATEWrapper} adds to a document to record the noun chunks.
+ **/
+public enum OutputMode {
+
+	/**
+	 * Adds an annotation spanning each noun chunk.
+	 **/
+	ANNOTATIONS,
+
+	/**
+	 * Adds the final chunk tag (B, I or O) of each token as a feature of the
+	 * token, without adding any annotations.
+	 **/
+	TOKEN_FEATURES,
+
+	/**
+	 * Adds both the chunk annotations and the token features.
+	 **/
+	BOTH
+}
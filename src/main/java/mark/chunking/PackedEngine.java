@@ -0,0 +1,422 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The engine behind {@link ChunkerEngine#PACKED}. There are only four chunk
+ * tags (the end of sentence marker Z plus I, O and B) so each tag fits in two
+ * bits and a single long holds the tags of 32 positions. A T part of a rule is
+ * then checked at 32 positions at once by XORing the packed tags with the
+ * value repeated in every lane, folding each lane down to one bit and
+ * shifting the result by the part's offsets. The W and P parts set lanes in
+ * the same layout from the positions in the anchor index, and the new tag is
+ * written to every matching lane with a masked blend. A rule with only T
+ * parts therefore costs a handful of word operations per 32 tokens.
+ * <p>
+ * Tags which aren't used by the rules have no two bit code, so a second set
+ * of lanes records which positions hold a known tag and no T part can match
+ * anywhere else. This engine is only used when the rules use at most
+ * {@link #TAGS} chunk tags, otherwise the chunker uses the compiled engine.
+ * <p>
+ * A whole document can be chunked at once. A rule is then only allowed to
+ * match where it fits within the sentence, which is worked out, once per
+ * document, for each distinct pair of smallest and largest offsets.
+ **/
+class PackedEngine extends RuleEngine<PackedEngine.Scratch> {
+	private static final long serialVersionUID = -4716011954326413305L;
+
+	/**
+	 * The most chunk tags, including the end of sentence marker, that can be
+	 * packed into two bits.
+	 **/
+	static final int TAGS = 4;
+
+	/**
+	 * The number of different pairs of smallest and largest offsets a rule
+	 * can have, as offsets run from -3 to 3.
+	 **/
+	private static final int FITS = 49;
+
+	/**
+	 * The low bit of every two bit lane, which is where the result of a
+	 * comparison is kept.
+	 **/
+	private static final long LOW = 0x5555555555555555L;
+
+	/**
+	 * Each tag id repeated in every lane.
+	 **/
+	private static final long[] PATTERN = { 0L, LOW, LOW << 1, -1L };
+
+	/**
+	 * The column of each part of each rule.
+	 **/
+	private final int[][] columns;
+
+	/**
+	 * The value id of each part of each rule.
+	 **/
+	private final int[][] ids;
+
+	/**
+	 * The offsets of each part of each rule.
+	 **/
+	private final int[][][] offsets;
+
+	PackedEngine(List<Rule> rules) {
+		super(rules);
+
+		columns = new int[this.rules.length][];
+		ids = new int[this.rules.length][];
+		offsets = new int[this.rules.length][][];
+		for (int r = 0; r < this.rules.length; ++r) {
+			Rule rule = this.rules[r];
+			int parts = rule.getPartCount();
+			columns[r] = new int[parts];
+			ids[r] = new int[parts];
+			offsets[r] = new int[parts][];
+			for (int i = 0; i < parts; ++i) {
+				columns[r][i] = rule.getColumn(i);
+				ids[r][i] = rule.getValueId(i);
+				offsets[r][i] = rule.getOffsets(i);
+			}
+		}
+	}
+
+	@Override
+	boolean supportsDocuments() {
+		return true;
+	}
+
+	@Override
+	Scratch newScratch() {
+		return new Scratch();
+	}
+
+	@Override
+	void apply(Workspace workspace, Scratch scratch, int numTokens) {
+		int[][] sentence = workspace.sentence;
+		int[] tags = sentence[Chunker.TAG];
+		int words = (numTokens + 31) >>> 5;
+		scratch.ensureCapacity(words, workspace.capacity());
+
+		long[] packed = scratch.tags;
+		long[] known = scratch.known;
+		long[] match = scratch.match;
+		long[] part = scratch.part;
+
+		// anything worked out from the sentence bounds of another document
+		// is out of date
+		if (workspace.document && scratch.document != workspace.documentCount) {
+			Arrays.fill(scratch.fitsBuilt, false);
+			scratch.document = workspace.documentCount;
+		}
+
+		// pack the tags into two bit lanes, unknown tags being left as zero
+		// but not marked as known
+		for (int w = 0; w < words; ++w) {
+			packed[w] = 0;
+			known[w] = 0;
+		}
+		for (int p = 0; p < numTokens; ++p) {
+			if (tags[p] != Chunker.UNKNOWN) {
+				packed[p >>> 5] |= (long) tags[p] << ((p & 31) << 1);
+				known[p >>> 5] |= 1L << ((p & 31) << 1);
+			}
+		}
+
+		AnchorIndex index = workspace.index;
+		index.index(sentence, numTokens);
+
+		RuleCounters counters = workspace.counters;
+		for (int r = 0; r < rules.length; ++r) {
+			Rule rule = rules[r];
+
+			// the range of positions at which the rule fits in the sentence,
+			// or for a document the whole document
+			int from = workspace.document ? 0 : Math.max(0, -rule.getBegin());
+			int to = workspace.document ? numTokens : Math.min(numTokens,
+					numTokens - rule.getEnd());
+
+			if (from >= to)
+				continue;
+
+			if (!occurs(r, index)) {
+				++workspace.skipped;
+				continue;
+			}
+
+			if (counters != null)
+				counters.startRule(workspace.tried);
+
+			workspace.tried += to - from;
+
+			int first = from >>> 5;
+			int last = (to - 1) >>> 5;
+
+			// start with every position the rule fits at
+			if (workspace.document) {
+				long[] fits = fits(workspace, scratch, rule.getBegin(),
+						rule.getEnd(), numTokens, words);
+				for (int w = first; w <= last; ++w)
+					match[w] = fits[w];
+			} else {
+				for (int w = first; w <= last; ++w)
+					match[w] = range(w, from, to);
+			}
+
+			boolean any = true;
+			for (int i = 0; i < columns[r].length && any; ++i) {
+				int[] ofs = offsets[r][i];
+				any = false;
+
+				if (columns[r][i] == Chunker.TAG) {
+					// the part holds wherever the tag is found at any of its
+					// offsets
+					int value = ids[r][i];
+					for (int w = first; w <= last; ++w) {
+						long holds = 0;
+						for (int o : ofs)
+							holds |= shifted(packed, known, words, value, w, o);
+
+						match[w] &= holds;
+						any |= match[w] != 0;
+					}
+				} else {
+					// set the lane of every position the rule would be
+					// centred at to find the value at one of the offsets
+					int column = columns[r][i];
+					int id = ids[r][i];
+					for (int w = first; w <= last; ++w)
+						part[w] = 0;
+
+					for (int k = index.start(column, id); k < index.end(
+							column, id); ++k) {
+						int position = index.position(column, k);
+						for (int o : ofs) {
+							int p = position - o;
+							if (p >= from && p < to)
+								part[p >>> 5] |= 1L << ((p & 31) << 1);
+						}
+					}
+
+					for (int w = first; w <= last; ++w) {
+						match[w] &= part[w];
+						any |= match[w] != 0;
+					}
+				}
+			}
+
+			int matched = 0;
+			int changed = 0;
+			if (any) {
+				// blend the new tag into every lane the rule matched
+				int tag = rule.getNewTagId();
+				for (int w = first; w <= last; ++w) {
+					long m = match[w];
+					if (m == 0)
+						continue;
+
+					if (counters != null) {
+						matched += Long.bitCount(m);
+						changed += Long.bitCount(m
+								& ~equal(packed[w], known[w], tag));
+					}
+
+					long lanes = m | (m << 1);
+					packed[w] = (packed[w] & ~lanes) | (PATTERN[tag] & lanes);
+					known[w] |= m;
+				}
+			}
+
+			if (counters != null)
+				counters.endRule(r, workspace.tried, matched, changed);
+		}
+
+		// unpack the tags, leaving any unknown tag which no rule changed
+		for (int p = 0; p < numTokens; ++p) {
+			int shift = (p & 31) << 1;
+			if ((known[p >>> 5] & (1L << shift)) != 0)
+				tags[p] = (int) (packed[p >>> 5] >>> shift) & 3;
+		}
+	}
+
+	/**
+	 * Returns the low bit of each lane of a word set if the lane holds the
+	 * given tag.
+	 **/
+	private static long equal(long packed, long known, int tag) {
+		long x = packed ^ PATTERN[tag];
+		return ~(x | (x >>> 1)) & known;
+	}
+
+	/**
+	 * Returns, for each position in a word, whether the position offset from
+	 * it holds the given tag.
+	 **/
+	private static long shifted(long[] packed, long[] known, int words,
+			int tag, int w, int offset) {
+		long here = equal(packed[w], known[w], tag);
+		if (offset == 0)
+			return here;
+
+		if (offset > 0) {
+			// later positions move down into this word
+			long next = w + 1 < words ? equal(packed[w + 1], known[w + 1],
+					tag) : 0;
+			int bits = offset << 1;
+			return (here >>> bits) | (next << (64 - bits));
+		}
+
+		// earlier positions move up into this word
+		long previous = w > 0 ? equal(packed[w - 1], known[w - 1], tag) : 0;
+		int bits = -offset << 1;
+		return (here << bits) | (previous >>> (64 - bits));
+	}
+
+	/**
+	 * Returns the low bit of the lanes of a word which are within a range of
+	 * positions.
+	 **/
+	private static long range(int w, int from, int to) {
+		int lo = Math.max(from - (w << 5), 0);
+		int hi = Math.min(to - (w << 5), 32);
+		long mask = hi == 32 ? LOW : LOW & ((1L << (hi << 1)) - 1);
+		return mask & -(1L << (lo << 1));
+	}
+
+	/**
+	 * Returns the index of the fits mask for a rule's smallest and largest
+	 * offsets.
+	 **/
+	static int fitsKey(int begin, int end) {
+		return (begin + 3) * 7 + end + 3;
+	}
+
+	/**
+	 * Returns the lanes of the document held in a workspace at which a rule
+	 * with the given smallest and largest offsets fits within the sentence,
+	 * building them if they haven't been for this document.
+	 **/
+	private static long[] fits(Workspace workspace, Scratch scratch,
+			int begin, int end, int numTokens, int words) {
+		int key = fitsKey(begin, end);
+		long[] fits = scratch.fits[key];
+		if (fits == null || fits.length < words) {
+			fits = new long[scratch.tags.length];
+			scratch.fits[key] = fits;
+			scratch.fitsBuilt[key] = false;
+		}
+
+		if (!scratch.fitsBuilt[key]) {
+			int[] start = workspace.sentenceStart;
+			int[] last = workspace.sentenceEnd;
+			for (int w = 0; w < words; ++w)
+				fits[w] = 0;
+			for (int p = 0; p < numTokens; ++p) {
+				if (p + begin >= start[p] && p + end <= last[p])
+					fits[p >>> 5] |= 1L << ((p & 31) << 1);
+			}
+			scratch.fitsBuilt[key] = true;
+		}
+
+		return fits;
+	}
+
+	/**
+	 * Returns false if a rule has a W or P part whose value doesn't occur
+	 * anywhere in the sentence, so that the rule can't match.
+	 **/
+	private boolean occurs(int r, AnchorIndex index) {
+		for (int i = 0; i < columns[r].length; ++i) {
+			if (columns[r][i] != Chunker.TAG
+					&& index.count(columns[r][i], ids[r][i]) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The packed lanes, kept by each thread.
+	 **/
+	static final class Scratch {
+
+		/**
+		 * The chunk tags packed two bits to a position.
+		 **/
+		long[] tags = new long[0];
+
+		/**
+		 * The low bit of the lane of each position in tags which holds a
+		 * known chunk tag.
+		 **/
+		long[] known = new long[0];
+
+		/**
+		 * The lanes at which the current rule matches.
+		 **/
+		long[] match = new long[0];
+
+		/**
+		 * The lanes at which the current W or P part holds.
+		 **/
+		long[] part = new long[0];
+
+		/**
+		 * When chunking a document, the lanes at which a rule with a given
+		 * smallest and largest offset fits within the sentence, indexed by
+		 * {@link PackedEngine#fitsKey(int, int)} and built when first needed.
+		 **/
+		final long[][] fits = new long[FITS][];
+
+		/**
+		 * Whether each of fits has been built for the current document.
+		 **/
+		final boolean[] fitsBuilt = new boolean[FITS];
+
+		/**
+		 * The documentCount of the workspace when fitsBuilt was last
+		 * cleared.
+		 **/
+		int document;
+
+		/**
+		 * Makes sure the lanes can hold the given number of words.
+		 * 
+		 * @param words
+		 *            the number of words needed.
+		 * @param capacity
+		 *            the number of tokens the workspace can hold, which the
+		 *            lanes are grown to fit.
+		 **/
+		void ensureCapacity(int words, int capacity) {
+			if (tags.length < words) {
+				int size = Math.max(words, (capacity + 31) >>> 5);
+				tags = new long[size];
+				known = new long[size];
+				match = new long[size];
+				part = new long[size];
+			}
+		}
+	}
+}
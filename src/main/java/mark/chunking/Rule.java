@@ -21,6 +21,7 @@ package mark.chunking;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -30,7 +31,7 @@ import java.util.regex.Pattern;
  * matches against text and to see if it fits within a sentence.
  **/
 public class Rule implements Serializable {
-	private static final long serialVersionUID = 787395188113920930L;
+	private static final long serialVersionUID = 5314069785245716002L;
 
 	/**
 	 * A Pattern which will split the rule name into type and offsets.
@@ -78,6 +79,34 @@ public class Rule implements Serializable {
 	 **/
 	private int end = Integer.MIN_VALUE;
 
+	/**
+	 * The column (one of {@link Chunker#WORD}, {@link Chunker#POS} or
+	 * {@link Chunker#TAG}) each part of the compiled rule is matched against.
+	 **/
+	private int[] columns;
+
+	/**
+	 * The interned id of the value for each part of the compiled rule.
+	 **/
+	private int[] ids;
+
+	/**
+	 * The offsets of all the parts of the compiled rule, stored one after
+	 * another. The offsets for part i run from offsetIndex[i] up to (but not
+	 * including) offsetIndex[i+1].
+	 **/
+	private int[] offsetIndex;
+
+	/**
+	 * The flattened offsets of the parts of the compiled rule.
+	 **/
+	private int[] offsetList;
+
+	/**
+	 * The interned id of the new chunk tag.
+	 **/
+	private int outId;
+
 	public Rule(String rule) {
 		// store a copy of the defining text
 		this.rule = rule;
@@ -140,6 +169,68 @@ public class Rule implements Serializable {
 		}
 	}
 
+	/**
+	 * Creates an already compiled rule, as read from a {@link CompiledModel},
+	 * without having to parse the text of the rule. The types, values and
+	 * text of the rule are rebuilt from the symbol tables so the rule behaves
+	 * exactly as if it had been read from the rules file.
+	 * 
+	 * @param columns
+	 *            the column each part of the rule is matched against.
+	 * @param ids
+	 *            the interned id of the value of each part.
+	 * @param offsetIndex
+	 *            the index into offsetList of the first offset of each part,
+	 *            plus the total number of offsets.
+	 * @param offsetList
+	 *            the offsets of all the parts stored one after another.
+	 * @param outId
+	 *            the interned id of the new chunk tag.
+	 * @param symbols
+	 *            the symbol tables, indexed by column, the ids refer to.
+	 **/
+	Rule(int[] columns, int[] ids, int[] offsetIndex, int[] offsetList,
+			int outId, SymbolTable[] symbols) {
+		this.columns = columns;
+		this.ids = ids;
+		this.offsetIndex = offsetIndex;
+		this.offsetList = offsetList;
+		this.outId = outId;
+
+		outTag = symbols[Chunker.TAG].get(outId);
+
+		// rebuild the template and the values in the same format as the
+		// rules file
+		StringBuilder template = new StringBuilder();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < columns.length; ++i) {
+			String type = columns[i] == Chunker.TAG ? "T"
+					: columns[i] == Chunker.WORD ? "W" : "P";
+			template.append(type);
+			types.add(type);
+
+			List<Integer> ofs = new ArrayList<Integer>();
+			for (int j = offsetIndex[i]; j < offsetIndex[i + 1]; ++j) {
+				int offset = offsetList[j];
+
+				template.append(offset < 0 ? "_" + (-offset) : offset);
+				ofs.add(offset);
+
+				if (offset < begin)
+					begin = offset;
+				if (offset > end)
+					end = offset;
+			}
+			offsets.add(ofs);
+
+			String value = symbols[columns[i]].get(ids[i]);
+			values.add(value);
+			text.append(' ').append(value);
+		}
+
+		rule = template.append(text).append(' ').append(outTag).toString();
+	}
+
 	/**
 	 * Simply returns true if this rule matches against the sentence at a given
 	 * position. This method makes no alterations to the tags assigned to any
@@ -230,6 +321,269 @@ public class Rule implements Serializable {
 		return matched;
 	}
 
+	/**
+	 * Compiles this rule into flat int arrays by interning the value of each
+	 * part in the symbol table for the column it is matched against. This must
+	 * be called before {@link #match(int, int, int[][])} can be used.
+	 * 
+	 * @param symbols
+	 *            the symbol tables indexed by column.
+	 **/
+	void compile(SymbolTable[] symbols) {
+		columns = new int[types.size()];
+		ids = new int[types.size()];
+		offsetIndex = new int[types.size() + 1];
+
+		// work out how many offsets there are in total
+		int count = 0;
+		for (List<Integer> ofs : offsets) {
+			count += ofs.size();
+		}
+
+		offsetList = new int[count];
+
+		count = 0;
+		for (int i = 0; i < types.size(); ++i) {
+			// find the column this part matches against and intern the value
+			columns[i] = column(types.get(i));
+			ids[i] = symbols[columns[i]].intern(values.get(i));
+
+			// copy the offsets for this part into the flat array
+			offsetIndex[i] = count;
+			for (Integer offset : offsets.get(i)) {
+				offsetList[count++] = offset.intValue();
+			}
+		}
+		offsetIndex[types.size()] = count;
+
+		outId = symbols[Chunker.TAG].intern(outTag);
+	}
+
+	/**
+	 * Maps the type of a rule part (T, W or P) to the column it is matched
+	 * against.
+	 **/
+	private static int column(String type) {
+		if (type.equals("T"))
+			return Chunker.TAG;
+		if (type.equals("W"))
+			return Chunker.WORD;
+		if (type.equals("P"))
+			return Chunker.POS;
+
+		throw new IllegalArgumentException("Invalid rule part type: " + type);
+	}
+
+	/**
+	 * The compiled equivalent of
+	 * {@link #match(int, List, List, List)} which works over a sentence encoded
+	 * as interned ids. This method makes no alterations to the sentence.
+	 * 
+	 * @param currentToken
+	 *            the index within the sentence of the token upon which the
+	 *            rule is centered.
+	 * @param numTokens
+	 *            the number of tokens in the sentence, including the end of
+	 *            sentence marker.
+	 * @param sentence
+	 *            the encoded sentence, indexed first by column and then by
+	 *            token.
+	 * @return true if the rule matches the input sentence, false otherwise.
+	 **/
+	boolean match(int currentToken, int numTokens, int[][] sentence) {
+		// if the rule doesn't fit within the sentence then it can never
+		// match so simply return false
+		if (!withinSentence(numTokens, currentToken))
+			return false;
+
+		return matchParts(currentToken, sentence);
+	}
+
+	/**
+	 * Matches the rule at a position of the sentence or document held in a
+	 * workspace. When the workspace holds a document the rule must fit within
+	 * the sentence containing the position, just as if that sentence had been
+	 * chunked on its own.
+	 **/
+	private boolean match(int currentToken, int numTokens, Workspace workspace) {
+		if (!workspace.document)
+			return match(currentToken, numTokens, workspace.sentence);
+
+		if (currentToken + begin < workspace.sentenceStart[currentToken]
+				|| currentToken + end > workspace.sentenceEnd[currentToken])
+			return false;
+
+		return matchParts(currentToken, workspace.sentence);
+	}
+
+	/**
+	 * Matches the parts of the rule at a position at which the rule is known
+	 * to fit.
+	 **/
+	private boolean matchParts(int currentToken, int[][] sentence) {
+		for (int i = 0; i < columns.length; ++i) {
+			int[] working = sentence[columns[i]];
+			int value = ids[i];
+
+			// the part matches if the value is found at any of its offsets
+			boolean matchOffset = false;
+			for (int j = offsetIndex[i]; j < offsetIndex[i + 1]
+					&& !matchOffset; ++j) {
+				matchOffset = working[currentToken + offsetList[j]] == value;
+			}
+
+			// as soon as one part fails the whole rule fails
+			if (!matchOffset)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns false if the value of one of the parts of this rule, be it a
+	 * word, POS tag or chunk tag, doesn't occur anywhere in the sentence, in
+	 * which case the rule can't match at any position. The chunk tag counts
+	 * of the index must be up to date.
+	 **/
+	boolean canMatch(AnchorIndex index) {
+		for (int i = 0; i < columns.length; ++i) {
+			if (index.count(columns[i], ids[i]) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds every position in the sentence at which this rule matches. If the
+	 * rule has a W or P part then it is only tried at the positions where the
+	 * value of the part that occurs least often in the sentence can be found,
+	 * otherwise it is tried at every position.
+	 * 
+	 * @param numTokens
+	 *            the number of tokens in the sentence, including the end of
+	 *            sentence marker, or in the document.
+	 * @param workspace
+	 *            the workspace holding the encoded sentence, or document, and
+	 *            its anchor index. The matching positions are written into its matches
+	 *            array and the number of positions tried is added to tried.
+	 * @param seen
+	 *            the stamp of the last rule tried at each position.
+	 * @param stamp
+	 *            a stamp not yet in seen, which is written to the positions
+	 *            this rule is tried at so that it is only tried once at each.
+	 * @return the number of matching positions written into matches.
+	 **/
+	int findMatches(int numTokens, Workspace workspace, int[] seen, int stamp) {
+		AnchorIndex index = workspace.index;
+		int[] matches = workspace.matches;
+		int matched = 0;
+
+		// find the most selective W or P part to anchor the rule to
+		int anchor = -1;
+		int fewest = Integer.MAX_VALUE;
+		for (int i = 0; i < columns.length; ++i) {
+			if (columns[i] != Chunker.TAG) {
+				int candidates = index.count(columns[i], ids[i])
+						* (offsetIndex[i + 1] - offsetIndex[i]);
+				if (candidates < fewest) {
+					anchor = i;
+					fewest = candidates;
+				}
+			}
+		}
+
+		if (anchor == -1) {
+			// the rule only has T parts so we have to try every position
+			for (int i = 0; i < numTokens; ++i) {
+				if (match(i, numTokens, workspace))
+					matches[matched++] = i;
+			}
+
+			workspace.tried += numTokens;
+			return matched;
+		}
+
+		int column = columns[anchor];
+		int end = index.end(column, ids[anchor]);
+		for (int k = index.start(column, ids[anchor]); k < end; ++k) {
+			int position = index.position(column, k);
+
+			for (int j = offsetIndex[anchor]; j < offsetIndex[anchor + 1]; ++j) {
+				// the rule would be centered at this token for the value to
+				// be at the right offset
+				int currentToken = position - offsetList[j];
+
+				if (currentToken < 0 || currentToken >= numTokens
+						|| seen[currentToken] == stamp)
+					continue;
+
+				seen[currentToken] = stamp;
+				++workspace.tried;
+
+				if (match(currentToken, numTokens, workspace))
+					matches[matched++] = currentToken;
+			}
+		}
+
+		return matched;
+	}
+
+	/**
+	 * Returns the smallest offset used within this rule.
+	 **/
+	int getBegin() {
+		return begin;
+	}
+
+	/**
+	 * Returns the largest offset used within this rule.
+	 **/
+	int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the number of parts in the compiled rule.
+	 **/
+	int getPartCount() {
+		return columns.length;
+	}
+
+	/**
+	 * Returns the column the given part of the compiled rule is matched
+	 * against.
+	 **/
+	int getColumn(int part) {
+		return columns[part];
+	}
+
+	/**
+	 * Returns the interned id of the value of the given part of the compiled
+	 * rule.
+	 **/
+	int getValueId(int part) {
+		return ids[part];
+	}
+
+	/**
+	 * Returns a copy of the offsets of the given part of the compiled rule.
+	 **/
+	int[] getOffsets(int part) {
+		return Arrays.copyOfRange(offsetList, offsetIndex[part],
+				offsetIndex[part + 1]);
+	}
+
+	/**
+	 * Returns the interned id of the new chunk tag to use if this rule
+	 * matched.
+	 * 
+	 * @return the id of the new chunk tag.
+	 **/
+	int getNewTagId() {
+		return outId;
+	}
+
 	/**
 	 * Simply returns the new chunk tag to use if this rule matched.
 	 * 
@@ -0,0 +1,138 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The per rule statistics collected by a single thread. Each thread only ever
+ * updates its own counters, so that collecting the statistics needs no
+ * synchronization, and {@link RuleStatistics} adds up the counters of all the
+ * threads when they are read.
+ **/
+class RuleCounters {
+
+	/**
+	 * One sentence in this many has the time spent on each rule measured.
+	 **/
+	static final int SAMPLE_EVERY = 64;
+
+	/**
+	 * For each rule, the number of positions it was tried at.
+	 **/
+	final long[] tested;
+
+	/**
+	 * For each rule, the number of positions it matched at.
+	 **/
+	final long[] matched;
+
+	/**
+	 * For each rule, the number of chunk tags it actually changed.
+	 **/
+	final long[] changed;
+
+	/**
+	 * For each rule, the time spent applying it to the sampled sentences.
+	 **/
+	final long[] nanos;
+
+	/**
+	 * The number of sentences chunked.
+	 **/
+	long sentences;
+
+	/**
+	 * The number of times a rule wasn't applied to a sentence at all because
+	 * a value it needs doesn't occur in the sentence.
+	 **/
+	long rulesSkipped;
+
+	/**
+	 * The number of sentences which have been timed.
+	 **/
+	long sampled;
+
+	/**
+	 * The total time spent chunking the sampled sentences.
+	 **/
+	long sentenceNanos;
+
+	/**
+	 * Whether the current sentence is being timed.
+	 **/
+	boolean sampling;
+
+	/**
+	 * When the current rule was started, if the sentence is being timed.
+	 **/
+	private long started;
+
+	/**
+	 * The value of the workspace's tried count when the current rule was
+	 * started.
+	 **/
+	private long triedBefore;
+
+	RuleCounters(int rules) {
+		tested = new long[rules];
+		matched = new long[rules];
+		changed = new long[rules];
+		nanos = new long[rules];
+	}
+
+	/**
+	 * Called before a sentence is chunked to decide whether to time it.
+	 **/
+	void startSentence() {
+		sampling = sentences++ % SAMPLE_EVERY == 0;
+	}
+
+	/**
+	 * Called before a rule is applied.
+	 * 
+	 * @param tried
+	 *            the current value of the workspace's tried count.
+	 **/
+	void startRule(long tried) {
+		triedBefore = tried;
+		if (sampling)
+			started = System.nanoTime();
+	}
+
+	/**
+	 * Called once a rule has been applied to record what it did.
+	 * 
+	 * @param rule
+	 *            the index of the rule.
+	 * @param tried
+	 *            the current value of the workspace's tried count.
+	 * @param matches
+	 *            the number of positions the rule matched at.
+	 * @param changes
+	 *            the number of chunk tags the rule changed.
+	 **/
+	void endRule(int rule, long tried, int matches, int changes) {
+		if (sampling)
+			nanos[rule] += System.nanoTime() - started;
+
+		tested[rule] += tried - triedBefore;
+		matched[rule] += matches;
+		changed[rule] += changes;
+	}
+}
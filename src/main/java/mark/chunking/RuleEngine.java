@@ -0,0 +1,152 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The base class of the engines which apply the rules of a {@link Chunker} to
+ * an encoded sentence. Every engine must produce exactly the same chunk tags
+ * as applying each rule in turn at every position in the sentence.
+ * <p>
+ * The engine itself is shared by every thread using the chunker, so anything
+ * it needs to keep while chunking a sentence goes in a scratch space, of type
+ * S, which each thread's {@link Workspace} creates once and holds on to.
+ **/
+abstract class RuleEngine<S> implements Serializable {
+	private static final long serialVersionUID = 2981350786203498458L;
+
+	/**
+	 * The rules in the order in which they are applied.
+	 **/
+	protected final Rule[] rules;
+
+	/**
+	 * The number of rule and position pairs that have actually been tried.
+	 **/
+	private final LongAdder tested = new LongAdder();
+
+	/**
+	 * The number of rule and position pairs that trying every rule at every
+	 * position would have tried.
+	 **/
+	private final LongAdder possible = new LongAdder();
+
+	/**
+	 * The number of times a rule wasn't applied to a sentence at all.
+	 **/
+	private final LongAdder skipped = new LongAdder();
+
+	RuleEngine(List<Rule> rules) {
+		this.rules = rules.toArray(new Rule[rules.size()]);
+	}
+
+	/**
+	 * Creates the scratch space used by one thread to apply the rules, which
+	 * is then passed to every call of
+	 * {@link #apply(Workspace, Object, int)} on that thread.
+	 **/
+	abstract S newScratch();
+
+	/**
+	 * Applies the rules to the sentence held in a workspace, updating the
+	 * chunk tags in place, and records how much work was done.
+	 * 
+	 * @param workspace
+	 *            the workspace holding the encoded sentence.
+	 * @param numTokens
+	 *            the number of tokens in the sentence, including the end of
+	 *            sentence marker.
+	 **/
+	final void chunk(Workspace workspace, int numTokens) {
+		workspace.tried = 0;
+		workspace.skipped = 0;
+
+		// the workspace was created with our scratch space
+		@SuppressWarnings("unchecked")
+		S scratch = (S) workspace.scratch;
+
+		RuleCounters counters = workspace.counters;
+		if (counters == null) {
+			apply(workspace, scratch, numTokens);
+		} else {
+			counters.startSentence();
+			long start = counters.sampling ? System.nanoTime() : 0;
+
+			apply(workspace, scratch, numTokens);
+
+			if (counters.sampling) {
+				counters.sentenceNanos += System.nanoTime() - start;
+				++counters.sampled;
+			}
+
+			counters.rulesSkipped += workspace.skipped;
+		}
+
+		tested.add(workspace.tried);
+		possible.add((long) rules.length * numTokens);
+		skipped.add(workspace.skipped);
+	}
+
+	/**
+	 * Applies the rules to the sentence held in a workspace, updating the
+	 * chunk tags in place and adding the number of rule and position pairs
+	 * that were tried to the workspace's tried count and the number of rules
+	 * that weren't applied at all, because a value they need doesn't occur in
+	 * the sentence, to its skipped count. If the workspace has counters then
+	 * what each rule did must be recorded in them. The scratch space, created
+	 * by {@link #newScratch()}, may be grown to fit the sentence.
+	 **/
+	abstract void apply(Workspace workspace, S scratch, int numTokens);
+
+	/**
+	 * Returns true if this engine can apply the rules to a whole document at
+	 * once. Such an engine must check that a rule fits within the sentence
+	 * containing each position, using the workspace's sentence bounds,
+	 * whenever the workspace holds a document.
+	 **/
+	boolean supportsDocuments() {
+		return false;
+	}
+
+	/**
+	 * Returns the number of rule and position pairs that have been tried.
+	 **/
+	long getPositionsTested() {
+		return tested.sum();
+	}
+
+	/**
+	 * Returns the number of rule and position pairs that didn't need to be
+	 * tried.
+	 **/
+	long getPositionsSkipped() {
+		return possible.sum() - tested.sum();
+	}
+
+	/**
+	 * Returns the number of times a rule wasn't applied to a sentence at all.
+	 **/
+	long getRulesSkipped() {
+		return skipped.sum();
+	}
+}
@@ -0,0 +1,309 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out which rules are actually needed for a particular kind of text.
+ * The full set of rules is run over a sample corpus, in the same format as
+ * read by {@link StreamChunker}, counting how many chunk tags each rule
+ * changes. A rule which never changes a tag has no effect on any sentence in
+ * the corpus, so leaving it out gives exactly the same chunk tags for the
+ * corpus while saving a pass over every sentence. Rules which change only a
+ * few tags can also be dropped by raising the minimum number of changes, in
+ * which case the report shows exactly what the pruned rules do differently.
+ * 
+ * <pre>
+ * java mark.chunking.RulePruner [-min n] rules pos_tag_dict pruned report corpus ...
+ * </pre>
+ * 
+ * The pruned rules file can then be used as the rulesURL of the GATE wrapper.
+ **/
+public class RulePruner {
+
+	/**
+	 * The most differences listed in the report.
+	 **/
+	private static final int EXAMPLES = 50;
+
+	private final Chunker chunker;
+
+	private final RuleStatistics statistics;
+
+	private final Map<String, String> chunkTags;
+
+	private final String unknownTag;
+
+	/**
+	 * The indexes of the rules kept by the last call to prune. The rules are
+	 * tracked by index as the same rule can appear more than once.
+	 **/
+	private BitSet kept;
+
+	/**
+	 * The number of tags each rule had changed when the rules were pruned,
+	 * as the statistics keep counting while the report is produced.
+	 **/
+	private long[] changed;
+
+	/**
+	 * Creates a pruner for the rules of a chunker.
+	 * 
+	 * @param chunker
+	 *            the chunker holding the full set of rules.
+	 * @param chunkTags
+	 *            the initial chunk tag for each POS tag.
+	 * @param unknownTag
+	 *            the initial chunk tag for a POS tag which isn't in chunkTags.
+	 **/
+	public RulePruner(Chunker chunker, Map<String, String> chunkTags,
+			String unknownTag) {
+		this.chunker = chunker;
+		this.chunkTags = chunkTags;
+		this.unknownTag = unknownTag;
+		statistics = chunker.enableStatistics();
+	}
+
+	/**
+	 * Runs the full set of rules over a corpus, counting what each rule does.
+	 * 
+	 * @param corpus
+	 *            the corpus, with a token per line and a blank line after
+	 *            each sentence.
+	 **/
+	public void count(BufferedReader corpus) throws IOException {
+		List<String> lines;
+		while ((lines = StreamChunker.readSentence(corpus)) != null) {
+			chunk(chunker, lines);
+		}
+	}
+
+	/**
+	 * Returns the rules which have changed at least the given number of chunk
+	 * tags in the corpora counted so far.
+	 * 
+	 * @param minChanges
+	 *            the number of tags a rule must have changed to be kept.
+	 * @return the rules to keep, in the order they are applied.
+	 **/
+	public List<Rule> prune(long minChanges) {
+		List<Rule> rules = new ArrayList<Rule>();
+		BitSet keep = new BitSet(statistics.getRuleCount());
+		long[] changes = statistics.getChangedCounts();
+		for (int r = 0; r < changes.length; ++r) {
+			if (changes[r] >= minChanges) {
+				rules.add(chunker.getRules().get(r));
+				keep.set(r);
+			}
+		}
+		kept = keep;
+		changed = changes;
+		return rules;
+	}
+
+	/**
+	 * Writes rules out in the format of the rules file.
+	 **/
+	public static void writeRules(List<Rule> rules, Writer out)
+			throws IOException {
+		for (Rule rule : rules) {
+			out.write(rule.toString());
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * Runs both the full and the pruned rules over a corpus and reports how
+	 * many rules were pruned and how many sentences and tokens they tag
+	 * differently, listing the first fifty sentences which differ. The rules
+	 * which were dropped are written separately by {@link #reportDropped}.
+	 * 
+	 * @param pruned
+	 *            a chunker using the rules returned by the last call to
+	 *            {@link #prune(long)}.
+	 * @param corpus
+	 *            the corpus to compare the rules on.
+	 * @param out
+	 *            where to write the report.
+	 * @return the number of tokens which were tagged differently.
+	 **/
+	public long report(Chunker pruned, BufferedReader corpus, Writer out)
+			throws IOException {
+		if (kept == null)
+			throw new IllegalStateException("The rules haven't been pruned");
+
+		long sentences = 0;
+		long tokens = 0;
+		long sentencesDiffering = 0;
+		long tokensDiffering = 0;
+		StringBuilder examples = new StringBuilder();
+
+		List<String> lines;
+		while ((lines = StreamChunker.readSentence(corpus)) != null) {
+			List<String> full = chunk(chunker, lines);
+			List<String> fewer = chunk(pruned, lines);
+
+			++sentences;
+			tokens += lines.size();
+
+			if (!full.equals(fewer)) {
+				++sentencesDiffering;
+
+				StringBuilder example = new StringBuilder("  ");
+				for (int i = 0; i < full.size(); ++i) {
+					example.append(lines.get(i).replace('\t', '/'));
+					if (full.get(i).equals(fewer.get(i))) {
+						example.append('/').append(full.get(i));
+					} else {
+						++tokensDiffering;
+						example.append('/').append(full.get(i)).append("->")
+								.append(fewer.get(i));
+					}
+					example.append(' ');
+				}
+
+				if (sentencesDiffering <= EXAMPLES)
+					examples.append(example.toString().trim()).append('\n');
+			}
+		}
+
+		int rules = chunker.getRules().size();
+		int keptCount = pruned.getRules().size();
+
+		out.write("Rules: " + rules + ", kept " + keptCount + ", dropped "
+				+ (rules - keptCount) + "\n");
+		out.write("Sentences compared: " + sentences + ", tagged differently "
+				+ sentencesDiffering + "\n");
+		out.write("Tokens compared: " + tokens + ", tagged differently "
+				+ tokensDiffering + "\n");
+
+		if (sentencesDiffering > 0) {
+			out.write("\nDifferences (full->pruned)"
+					+ (sentencesDiffering > EXAMPLES ? ", the first "
+							+ EXAMPLES + " of " + sentencesDiffering : "")
+					+ ":\n");
+			out.write(examples.toString());
+		}
+
+		out.flush();
+		return tokensDiffering;
+	}
+
+	/**
+	 * Lists the rules dropped by the last call to {@link #prune(long)}, with
+	 * the number of chunk tags each of them changed on the corpus it was
+	 * counted on.
+	 * 
+	 * @param out
+	 *            where to write the list.
+	 **/
+	public void reportDropped(Writer out) throws IOException {
+		if (kept == null)
+			throw new IllegalStateException("The rules haven't been pruned");
+
+		out.write("Dropped rules, with the number of tags they changed:\n");
+		for (int r = 0; r < changed.length; ++r) {
+			if (!kept.get(r))
+				out.write("  " + chunker.getRules().get(r) + "\t"
+						+ changed[r] + "\n");
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Chunks a sentence read from a corpus.
+	 **/
+	private List<String> chunk(Chunker c, List<String> lines) {
+		return StreamChunker.chunkLines(c, chunkTags, unknownTag, lines,
+				new ArrayList<String>(lines.size()),
+				new ArrayList<String>(lines.size()));
+	}
+
+	public static void main(String[] args) throws IOException {
+		long minChanges = 1;
+		int first = 0;
+		if (args.length > 1 && args[0].equals("-min")) {
+			minChanges = Long.parseLong(args[1]);
+			first = 2;
+		}
+
+		if (args.length - first < 5) {
+			System.err.println("Usage: java " + RulePruner.class.getName()
+					+ " [-min n] rules pos_tag_dict pruned report corpus ...");
+			System.exit(1);
+		}
+
+		URL rules = new File(args[first]).toURI().toURL();
+		Map<String, String> chunkTags = CompiledModel.readChunkTags(new File(
+				args[first + 1]).toURI().toURL());
+		File prunedFile = new File(args[first + 2]);
+		File reportFile = new File(args[first + 3]);
+
+		RulePruner pruner = new RulePruner(new Chunker(rules), chunkTags, "I");
+		for (int i = first + 4; i < args.length; ++i) {
+			try (BufferedReader in = open(args[i])) {
+				pruner.count(in);
+			}
+		}
+
+		try (Writer out = create(prunedFile)) {
+			writeRules(pruner.prune(minChanges), out);
+		}
+
+		Chunker pruned = new Chunker(prunedFile.toURI().toURL());
+		try (Writer out = create(reportFile)) {
+			for (int i = first + 4; i < args.length; ++i) {
+				try (BufferedReader in = open(args[i])) {
+					out.write("== " + args[i] + "\n");
+					pruner.report(pruned, in, out);
+					out.write("\n");
+				}
+			}
+			pruner.reportDropped(out);
+		}
+	}
+
+	private static BufferedReader open(String file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(
+				file), StandardCharsets.UTF_8));
+	}
+
+	private static Writer create(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+				file), StandardCharsets.UTF_8));
+	}
+}
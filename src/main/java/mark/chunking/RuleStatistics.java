@@ -0,0 +1,387 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Statistics about what each rule of a {@link Chunker} does: how many
+ * positions it was tried at, how many of those it matched at and how many
+ * chunk tags it actually changed. The time spent on each rule is measured for
+ * one sentence in every {@value RuleCounters#SAMPLE_EVERY}. This only covers
+ * the work done for that specific rule, so the single pass over the sentence
+ * made by the {@link ChunkerEngine#TRANSDUCER} engine for all the rules only
+ * shows up in the sentence time.
+ * <p>
+ * Each thread counts into its own {@link RuleCounters} which are only added
+ * together when the statistics are read, so values read while sentences are
+ * being chunked may be very slightly out of date. Once a thread has finished
+ * its counters are folded into a running total and dropped, so that pools
+ * which keep replacing their threads don't leave a set of counters behind for
+ * every thread they have ever run.
+ **/
+public class RuleStatistics implements RuleStatisticsMBean {
+
+	/**
+	 * The rules the statistics are for.
+	 **/
+	private final List<Rule> rules;
+
+	/**
+	 * The counters of every thread which has chunked a sentence and may still
+	 * be running, guarded by this object's lock.
+	 **/
+	private final List<ThreadCounters> counters = new ArrayList<ThreadCounters>();
+
+	/**
+	 * The counts of the threads which have finished, guarded by this object's
+	 * lock.
+	 **/
+	private final Totals retired;
+
+	/**
+	 * The totals when the statistics were last reset.
+	 **/
+	private volatile Totals baseline;
+
+	RuleStatistics(List<Rule> rules) {
+		this.rules = rules;
+		baseline = new Totals(rules.size());
+		retired = new Totals(rules.size());
+	}
+
+	/**
+	 * Creates the counters for the calling thread.
+	 **/
+	synchronized RuleCounters newCounters() {
+		retire();
+
+		RuleCounters c = new RuleCounters(rules.size());
+		counters.add(new ThreadCounters(Thread.currentThread(), c));
+		return c;
+	}
+
+	/**
+	 * Returns the number of threads whose counters are still held separately,
+	 * i.e. those which may still be running.
+	 **/
+	synchronized int getThreadCount() {
+		retire();
+		return counters.size();
+	}
+
+	/**
+	 * Folds the counters of every thread which has finished into the retired
+	 * totals. Seeing that a thread is no longer alive guarantees that all its
+	 * updates to its counters are visible.
+	 **/
+	private void retire() {
+		Iterator<ThreadCounters> it = counters.iterator();
+		while (it.hasNext()) {
+			ThreadCounters c = it.next();
+			Thread owner = c.get();
+			if (owner == null || !owner.isAlive()) {
+				retired.add(c.counters);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Adds up the counters of every thread, including those which have
+	 * finished.
+	 **/
+	private synchronized Totals sum() {
+		retire();
+
+		Totals totals = new Totals(rules.size());
+		totals.add(retired);
+		for (ThreadCounters c : counters)
+			totals.add(c.counters);
+		return totals;
+	}
+
+	/**
+	 * Returns the totals since the statistics were last reset.
+	 **/
+	private Totals current() {
+		Totals totals = sum();
+		Totals base = baseline;
+		for (int r = 0; r < rules.size(); ++r) {
+			totals.tested[r] -= base.tested[r];
+			totals.matched[r] -= base.matched[r];
+			totals.changed[r] -= base.changed[r];
+			totals.nanos[r] -= base.nanos[r];
+		}
+		totals.sentences -= base.sentences;
+		totals.rulesSkipped -= base.rulesSkipped;
+		totals.sampled -= base.sampled;
+		totals.sentenceNanos -= base.sentenceNanos;
+		return totals;
+	}
+
+	/**
+	 * Returns the number of positions a rule has been tried at.
+	 * 
+	 * @param rule
+	 *            the index of the rule.
+	 **/
+	public long getTested(int rule) {
+		return current().tested[rule];
+	}
+
+	/**
+	 * Returns the number of positions a rule has matched at.
+	 * 
+	 * @param rule
+	 *            the index of the rule.
+	 **/
+	public long getMatched(int rule) {
+		return current().matched[rule];
+	}
+
+	/**
+	 * Returns the number of chunk tags a rule has changed.
+	 * 
+	 * @param rule
+	 *            the index of the rule.
+	 **/
+	public long getChanged(int rule) {
+		return current().changed[rule];
+	}
+
+	/**
+	 * Returns the number of positions every rule has been tried at. Reading
+	 * them all at once adds up the counters of the threads once rather than
+	 * once for every rule.
+	 * 
+	 * @return the count for each rule, indexed in the order the rules are
+	 *         applied.
+	 **/
+	public long[] getTestedCounts() {
+		return current().tested;
+	}
+
+	/**
+	 * Returns the number of positions every rule has matched at.
+	 * 
+	 * @return the count for each rule, indexed in the order the rules are
+	 *         applied.
+	 **/
+	public long[] getMatchedCounts() {
+		return current().matched;
+	}
+
+	/**
+	 * Returns the number of chunk tags every rule has changed.
+	 * 
+	 * @return the count for each rule, indexed in the order the rules are
+	 *         applied.
+	 **/
+	public long[] getChangedCounts() {
+		return current().changed;
+	}
+
+	@Override
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	@Override
+	public int getRulesMatched() {
+		int count = 0;
+		for (long m : current().matched) {
+			if (m > 0)
+				++count;
+		}
+		return count;
+	}
+
+	@Override
+	public int getRulesChanging() {
+		int count = 0;
+		for (long c : current().changed) {
+			if (c > 0)
+				++count;
+		}
+		return count;
+	}
+
+	@Override
+	public long getSentences() {
+		return current().sentences;
+	}
+
+	@Override
+	public double getMeanSentenceMicros() {
+		Totals totals = current();
+		return totals.sampled == 0 ? 0 : totals.sentenceNanos / 1000d
+				/ totals.sampled;
+	}
+
+	@Override
+	public long getRulesSkipped() {
+		return current().rulesSkipped;
+	}
+
+	@Override
+	public double getMeanRulesSkipped() {
+		Totals totals = current();
+		return totals.sentences == 0 ? 0 : (double) totals.rulesSkipped
+				/ totals.sentences;
+	}
+
+	@Override
+	public long getPositionsTested() {
+		return total(current().tested);
+	}
+
+	@Override
+	public long getPositionsMatched() {
+		return total(current().matched);
+	}
+
+	@Override
+	public long getTagsChanged() {
+		return total(current().changed);
+	}
+
+	private static long total(long[] values) {
+		long total = 0;
+		for (long value : values)
+			total += value;
+		return total;
+	}
+
+	@Override
+	public void reset() {
+		baseline = sum();
+	}
+
+	@Override
+	public String getCSV() {
+		StringWriter out = new StringWriter();
+		try {
+			writeCSV(out);
+		} catch (IOException e) {
+			// writing to a string can't fail
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the statistics of every rule as CSV, one line per rule in the
+	 * order the rules are applied.
+	 * 
+	 * @param out
+	 *            where to write the CSV.
+	 **/
+	public void writeCSV(Writer out) throws IOException {
+		Totals totals = current();
+
+		out.write("index,rule,tested,matched,changed,sampled_nanos\n");
+		for (int r = 0; r < rules.size(); ++r) {
+			out.write(r + ",\"" + rules.get(r).toString().replace("\"", "\"\"")
+					+ "\"," + totals.tested[r] + "," + totals.matched[r] + ","
+					+ totals.changed[r] + "," + totals.nanos[r] + "\n");
+		}
+		out.flush();
+	}
+
+	/**
+	 * The counters of a thread, which are kept until the thread has finished
+	 * without stopping the thread itself from being garbage collected.
+	 **/
+	private static final class ThreadCounters extends WeakReference<Thread> {
+		final RuleCounters counters;
+
+		ThreadCounters(Thread owner, RuleCounters counters) {
+			super(owner);
+			this.counters = counters;
+		}
+	}
+
+	/**
+	 * The counters of all the threads added together.
+	 **/
+	private static final class Totals {
+		final long[] tested;
+
+		final long[] matched;
+
+		final long[] changed;
+
+		final long[] nanos;
+
+		long sentences;
+
+		long rulesSkipped;
+
+		long sampled;
+
+		long sentenceNanos;
+
+		Totals(int rules) {
+			tested = new long[rules];
+			matched = new long[rules];
+			changed = new long[rules];
+			nanos = new long[rules];
+		}
+
+		/**
+		 * Adds the counters of a single thread.
+		 **/
+		void add(RuleCounters c) {
+			for (int r = 0; r < tested.length; ++r) {
+				tested[r] += c.tested[r];
+				matched[r] += c.matched[r];
+				changed[r] += c.changed[r];
+				nanos[r] += c.nanos[r];
+			}
+			sentences += c.sentences;
+			rulesSkipped += c.rulesSkipped;
+			sampled += c.sampled;
+			sentenceNanos += c.sentenceNanos;
+		}
+
+		/**
+		 * Adds another set of totals.
+		 **/
+		void add(Totals t) {
+			for (int r = 0; r < tested.length; ++r) {
+				tested[r] += t.tested[r];
+				matched[r] += t.matched[r];
+				changed[r] += t.changed[r];
+				nanos[r] += t.nanos[r];
+			}
+			sentences += t.sentences;
+			rulesSkipped += t.rulesSkipped;
+			sampled += t.sampled;
+			sentenceNanos += t.sentenceNanos;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The management interface through which {@link RuleStatistics} are exposed
+ * over JMX.
+ **/
+public interface RuleStatisticsMBean {
+
+	/**
+	 * Returns the number of rules.
+	 **/
+	int getRuleCount();
+
+	/**
+	 * Returns the number of rules which have matched at least once.
+	 **/
+	int getRulesMatched();
+
+	/**
+	 * Returns the number of rules which have changed at least one chunk tag.
+	 **/
+	int getRulesChanging();
+
+	/**
+	 * Returns the number of sentences chunked.
+	 **/
+	long getSentences();
+
+	/**
+	 * Returns the mean time, in microseconds, taken to chunk one of the
+	 * sentences which were timed.
+	 **/
+	double getMeanSentenceMicros();
+
+	/**
+	 * Returns the number of times a rule wasn't applied to a sentence at all
+	 * because a value it needs doesn't occur in the sentence.
+	 **/
+	long getRulesSkipped();
+
+	/**
+	 * Returns the mean number of rules skipped for each sentence.
+	 **/
+	double getMeanRulesSkipped();
+
+	/**
+	 * Returns the total number of rule and position pairs tried.
+	 **/
+	long getPositionsTested();
+
+	/**
+	 * Returns the total number of rule and position pairs which matched.
+	 **/
+	long getPositionsMatched();
+
+	/**
+	 * Returns the total number of chunk tags changed by the rules.
+	 **/
+	long getTagsChanged();
+
+	/**
+	 * Returns the statistics of every rule as CSV. They are returned, rather
+	 * than written to a file, so that a JMX client can't use this to write
+	 * wherever the JVM is allowed to.
+	 **/
+	String getCSV();
+
+	/**
+	 * Starts counting again from zero.
+	 **/
+	void reset();
+}
@@ -0,0 +1,608 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A finite-state transducer which reads a sentence from left to right and
+ * outputs the positions at which the W and P parts of each rule hold. The
+ * chunk tags change as the rules are applied and so the T parts are checked
+ * afterwards, when the rules that were found are applied in order, giving
+ * exactly the same output as trying every rule at every position.
+ * <p>
+ * Each combination of offsets of a rule's W and P parts is an alternative; a
+ * simple chain of states, each of which checks the word and POS tag of one
+ * token. The deterministic transducer is the subset construction over all of
+ * these chains. As the transducer for 2000 rules over the full vocabulary is
+ * far too large to build up front, the states and transitions are determinized
+ * lazily, as they are needed, and cached. The cache is bounded and is simply
+ * thrown away and rebuilt when it fills up. Once warmed up, the cost of the
+ * pass over the sentence depends only on its length, not on the number of
+ * rules.
+ * <p>
+ * Reading the cache doesn't require a lock, so one transducer can be shared by
+ * many threads.
+ **/
+class RuleTransducer extends RuleEngine<RuleTransducer.Scratch> {
+	private static final long serialVersionUID = 4413823094128870133L;
+
+	/**
+	 * The value used in the steps of an alternative for a column which isn't
+	 * constrained.
+	 **/
+	private static final int ANY = Integer.MIN_VALUE;
+
+	/**
+	 * The log2 of the number of transitions that can be cached before the
+	 * cache is thrown away.
+	 **/
+	private static final int CACHE_BITS = 17;
+
+	/**
+	 * The indexes of the rules which have no W or P parts and so have to be
+	 * tried at every position.
+	 **/
+	private final int[] scanRules;
+
+	/**
+	 * The index of the rule each alternative belongs to.
+	 **/
+	private final int[] altRule;
+
+	/**
+	 * The offset, relative to the token the rule is centered upon, of the last
+	 * step of each alternative.
+	 **/
+	private final int[] altLast;
+
+	/**
+	 * The word id each step of each alternative requires, or ANY.
+	 **/
+	private final int[][] altWords;
+
+	/**
+	 * The POS id each step of each alternative requires, or ANY.
+	 **/
+	private final int[][] altPos;
+
+	/**
+	 * The alternatives indexed by the word id their first step requires.
+	 **/
+	private final int[][] startsByWord;
+
+	/**
+	 * The alternatives, whose first step doesn't require a word, indexed by
+	 * the POS id their first step requires.
+	 **/
+	private final int[][] startsByPos;
+
+	/**
+	 * The state the transducer is in before reading a sentence.
+	 **/
+	private final State start;
+
+	/**
+	 * The id to give to the next new state. Ids are never reused so that
+	 * states from an old cache can't be confused with those in a new cache.
+	 **/
+	private int nextId = 1;
+
+	/**
+	 * The states and transitions determinized so far.
+	 **/
+	private transient volatile Cache cache;
+
+	RuleTransducer(List<Rule> rules, int wordSymbols, int posSymbols) {
+		super(rules);
+
+		if (wordSymbols >= (1 << 20) - 1 || posSymbols >= (1 << 12) - 1)
+			throw new IllegalArgumentException(
+					"Too many words or POS tags in the rules to build a transducer");
+
+		List<Integer> scan = new ArrayList<Integer>();
+		List<int[]> words = new ArrayList<int[]>();
+		List<int[]> pos = new ArrayList<int[]>();
+		List<Integer> ruleOf = new ArrayList<Integer>();
+		List<Integer> lastOf = new ArrayList<Integer>();
+
+		for (int r = 0; r < this.rules.length; ++r) {
+			Rule rule = this.rules[r];
+
+			// find the W and P parts of the rule
+			List<Integer> parts = new ArrayList<Integer>();
+			for (int i = 0; i < rule.getPartCount(); ++i) {
+				if (rule.getColumn(i) != Chunker.TAG)
+					parts.add(i);
+			}
+
+			if (parts.isEmpty()) {
+				// a rule of just T parts can't be found by the transducer
+				scan.add(r);
+			} else {
+				expand(rule, r, parts, new int[parts.size()], 0, words, pos,
+						ruleOf, lastOf);
+			}
+		}
+
+		scanRules = toArray(scan);
+		altRule = toArray(ruleOf);
+		altLast = toArray(lastOf);
+		altWords = words.toArray(new int[words.size()][]);
+		altPos = pos.toArray(new int[pos.size()][]);
+
+		// index the alternatives by the value their first step requires so
+		// that we don't have to look at every rule at every token
+		List<List<Integer>> byWord = new ArrayList<List<Integer>>();
+		List<List<Integer>> byPos = new ArrayList<List<Integer>>();
+		for (int i = 0; i < wordSymbols; ++i)
+			byWord.add(new ArrayList<Integer>());
+		for (int i = 0; i < posSymbols; ++i)
+			byPos.add(new ArrayList<Integer>());
+
+		for (int alt = 0; alt < altRule.length; ++alt) {
+			if (altWords[alt][0] != ANY)
+				byWord.get(altWords[alt][0]).add(alt);
+			else
+				byPos.get(altPos[alt][0]).add(alt);
+		}
+
+		startsByWord = new int[wordSymbols][];
+		for (int i = 0; i < wordSymbols; ++i)
+			startsByWord[i] = toArray(byWord.get(i));
+
+		startsByPos = new int[posSymbols][];
+		for (int i = 0; i < posSymbols; ++i)
+			startsByPos[i] = toArray(byPos.get(i));
+
+		start = new State(nextId++, new int[0], new int[0]);
+	}
+
+	/**
+	 * Recursively chooses an offset for each W and P part of a rule, adding an
+	 * alternative for each consistent combination.
+	 **/
+	private static void expand(Rule rule, int r, List<Integer> parts,
+			int[] chosen, int part, List<int[]> words, List<int[]> pos,
+			List<Integer> ruleOf, List<Integer> lastOf) {
+		if (part < parts.size()) {
+			for (int offset : rule.getOffsets(parts.get(part))) {
+				chosen[part] = offset;
+				expand(rule, r, parts, chosen, part + 1, words, pos, ruleOf,
+						lastOf);
+			}
+			return;
+		}
+
+		int first = Integer.MAX_VALUE;
+		int last = Integer.MIN_VALUE;
+		for (int offset : chosen) {
+			first = Math.min(first, offset);
+			last = Math.max(last, offset);
+		}
+
+		int[] w = new int[last - first + 1];
+		int[] p = new int[last - first + 1];
+		Arrays.fill(w, ANY);
+		Arrays.fill(p, ANY);
+
+		for (int i = 0; i < chosen.length; ++i) {
+			int[] step = rule.getColumn(parts.get(i)) == Chunker.WORD ? w : p;
+			int value = rule.getValueId(parts.get(i));
+			int slot = chosen[i] - first;
+
+			if (step[slot] != ANY && step[slot] != value) {
+				// two parts need different values at the same token so this
+				// alternative can never match
+				return;
+			}
+
+			step[slot] = value;
+		}
+
+		words.add(w);
+		pos.add(p);
+		ruleOf.add(r);
+		lastOf.add(last);
+	}
+
+	@Override
+	Scratch newScratch() {
+		return new Scratch();
+	}
+
+	/**
+	 * Applies the rules to the sentence held in a workspace, updating the
+	 * chunk tags in place.
+	 * 
+	 * @param workspace
+	 *            the workspace holding the encoded sentence.
+	 * @param scratch
+	 *            where the rule and position pairs found are collected.
+	 * @param numTokens
+	 *            the number of tokens in the sentence, including the end of
+	 *            sentence marker.
+	 **/
+	@Override
+	void apply(Workspace workspace, Scratch scratch, int numTokens) {
+		int[][] sentence = workspace.sentence;
+		int[] words = sentence[Chunker.WORD];
+		int[] pos = sentence[Chunker.POS];
+
+		// run the transducer over the sentence collecting the rule and
+		// center of each alternative it finds, packed into a long so that
+		// they can be sorted into the order the rules must be applied
+		long[] found = scratch.found;
+		int count = 0;
+
+		State state = start;
+		for (int i = 0; i < numTokens; ++i) {
+			state = next(state, words[i], pos[i]);
+
+			for (int alt : state.emits) {
+				int currentToken = i - altLast[alt];
+
+				if (currentToken >= 0 && currentToken < numTokens) {
+					if (count == found.length)
+						found = scratch.found = Arrays.copyOf(found, count * 2);
+					found[count++] = ((long) altRule[alt] << 32)
+							| currentToken;
+				}
+			}
+		}
+
+		sort(found, 0, count - 1);
+
+		// now apply the rules that were found, and those that must be tried
+		// everywhere, in order checking the T parts as we go
+		int[] tags = sentence[Chunker.TAG];
+		int[] matches = workspace.matches;
+		RuleCounters counters = workspace.counters;
+		int next = 0;
+		int scan = 0;
+
+		while (next < count || scan < scanRules.length) {
+			int r = next < count ? (int) (found[next] >>> 32)
+					: Integer.MAX_VALUE;
+			if (scan < scanRules.length && scanRules[scan] < r)
+				r = scanRules[scan++];
+
+			Rule rule = rules[r];
+			int matched = 0;
+
+			if (counters != null)
+				counters.startRule(workspace.tried);
+
+			if (next < count && (int) (found[next] >>> 32) == r) {
+				int previous = -1;
+				while (next < count && (int) (found[next] >>> 32) == r) {
+					int currentToken = (int) found[next++];
+
+					// different alternatives may find the same position
+					if (currentToken != previous) {
+						++workspace.tried;
+						if (rule.match(currentToken, numTokens, sentence))
+							matches[matched++] = currentToken;
+					}
+
+					previous = currentToken;
+				}
+			} else {
+				for (int i = 0; i < numTokens; ++i) {
+					if (rule.match(i, numTokens, sentence))
+						matches[matched++] = i;
+				}
+				workspace.tried += numTokens;
+			}
+
+			if (counters == null) {
+				for (int i = 0; i < matched; ++i) {
+					tags[matches[i]] = rule.getNewTagId();
+				}
+			} else {
+				int changed = 0;
+				for (int i = 0; i < matched; ++i) {
+					if (tags[matches[i]] != rule.getNewTagId()) {
+						tags[matches[i]] = rule.getNewTagId();
+						++changed;
+					}
+				}
+				counters.endRule(r, workspace.tried, matched, changed);
+			}
+		}
+	}
+
+	/**
+	 * Follows the transition from a state for a token, determinizing it first
+	 * if it isn't in the cache.
+	 **/
+	private State next(State from, int word, int pos) {
+		Cache c = cache;
+		if (c != null) {
+			long key = key(from, word, pos);
+			int mask = c.keys.length() - 1;
+
+			for (int slot = slot(key, mask);; slot = (slot + 1) & mask) {
+				long k = c.keys.get(slot);
+				if (k == key)
+					return c.targets.get(slot);
+				if (k == 0)
+					break;
+			}
+		}
+
+		return learn(from, word, pos);
+	}
+
+	/**
+	 * Determinizes a transition and adds it to the cache.
+	 **/
+	private synchronized State learn(State from, int word, int pos) {
+		Cache c = cache;
+		if (c == null || c.transitions >= c.keys.length() / 2) {
+			// the cache is full so start again from scratch
+			cache = c = new Cache();
+		}
+
+		long key = key(from, word, pos);
+		int mask = c.keys.length() - 1;
+		int slot = slot(key, mask);
+		while (c.keys.get(slot) != 0) {
+			// another thread got here first
+			if (c.keys.get(slot) == key)
+				return c.targets.get(slot);
+			slot = (slot + 1) & mask;
+		}
+
+		int[] threads = new int[from.threads.length + 16];
+		int[] emits = new int[16];
+		int live = 0;
+		int emitted = 0;
+
+		// advance each of the partially matched alternatives
+		for (int thread : from.threads) {
+			int alt = thread >>> 3;
+			int step = thread & 7;
+
+			if (accepts(alt, step, word, pos)) {
+				if (step + 1 == altWords[alt].length) {
+					if (emitted == emits.length)
+						emits = Arrays.copyOf(emits, emitted * 2);
+					emits[emitted++] = alt;
+				} else {
+					if (live == threads.length)
+						threads = Arrays.copyOf(threads, live * 2);
+					threads[live++] = (alt << 3) | (step + 1);
+				}
+			}
+		}
+
+		// and start any alternatives this token could begin
+		for (int i = 0; i < 2; ++i) {
+			int[] starts;
+			if (i == 0)
+				starts = word == Chunker.UNKNOWN ? null : startsByWord[word];
+			else
+				starts = pos == Chunker.UNKNOWN ? null : startsByPos[pos];
+
+			if (starts == null)
+				continue;
+
+			for (int alt : starts) {
+				if (accepts(alt, 0, word, pos)) {
+					if (altWords[alt].length == 1) {
+						if (emitted == emits.length)
+							emits = Arrays.copyOf(emits, emitted * 2);
+						emits[emitted++] = alt;
+					} else {
+						if (live == threads.length)
+							threads = Arrays.copyOf(threads, live * 2);
+						threads[live++] = (alt << 3) | 1;
+					}
+				}
+			}
+		}
+
+		threads = Arrays.copyOf(threads, live);
+		emits = Arrays.copyOf(emits, emitted);
+		Arrays.sort(threads);
+		Arrays.sort(emits);
+
+		StateKey stateKey = new StateKey(threads, emits);
+		State to = c.states.get(stateKey);
+		if (to == null) {
+			to = new State(nextId++, threads, emits);
+			c.states.put(stateKey, to);
+		}
+
+		// publish the target before the key so a reader that sees the key
+		// also sees the target
+		c.targets.set(slot, to);
+		c.keys.set(slot, key);
+		c.transitions++;
+
+		return to;
+	}
+
+	/**
+	 * Sorts part of an array in place. Arrays.sort can allocate a buffer when
+	 * merging runs, which we want to avoid on every sentence.
+	 **/
+	private static void sort(long[] a, int low, int high) {
+		while (high - low > 16) {
+			// partition around the median of the first, middle and last
+			int middle = (low + high) >>> 1;
+			if (a[middle] < a[low])
+				swap(a, low, middle);
+			if (a[high] < a[low])
+				swap(a, low, high);
+			if (a[high] < a[middle])
+				swap(a, middle, high);
+			long pivot = a[middle];
+
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (a[i] < pivot)
+					++i;
+				while (a[j] > pivot)
+					--j;
+				if (i <= j)
+					swap(a, i++, j--);
+			}
+
+			// recurse into the smaller half and loop on the larger
+			if (j - low < high - i) {
+				sort(a, low, j);
+				low = i;
+			} else {
+				sort(a, i, high);
+				high = j;
+			}
+		}
+
+		// finish off small ranges with an insertion sort
+		for (int i = low + 1; i <= high; ++i) {
+			long value = a[i];
+			int j = i - 1;
+			while (j >= low && a[j] > value) {
+				a[j + 1] = a[j];
+				--j;
+			}
+			a[j + 1] = value;
+		}
+	}
+
+	private static void swap(long[] a, int i, int j) {
+		long tmp = a[i];
+		a[i] = a[j];
+		a[j] = tmp;
+	}
+
+	private boolean accepts(int alt, int step, int word, int pos) {
+		int w = altWords[alt][step];
+		int p = altPos[alt][step];
+		return (w == ANY || w == word) && (p == ANY || p == pos);
+	}
+
+	private static long key(State from, int word, int pos) {
+		return ((long) from.id << 32) | ((long) (word + 1) << 12) | (pos + 1);
+	}
+
+	private static int slot(long key, int mask) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	/**
+	 * A deterministic state; the set of partially matched alternatives (each
+	 * packed as the alternative shifted left 3 bits plus the number of steps
+	 * matched) and the alternatives which were completed on entering it.
+	 **/
+	private static final class State implements Serializable {
+		private static final long serialVersionUID = -2318474226315530371L;
+
+		final int id;
+
+		final int[] threads;
+
+		final int[] emits;
+
+		State(int id, int[] threads, int[] emits) {
+			this.id = id;
+			this.threads = threads;
+			this.emits = emits;
+		}
+	}
+
+	/**
+	 * The content of a state, used to find states that have already been
+	 * determinized.
+	 **/
+	private static final class StateKey {
+		final int[] threads;
+
+		final int[] emits;
+
+		final int hash;
+
+		StateKey(int[] threads, int[] emits) {
+			this.threads = threads;
+			this.emits = emits;
+			this.hash = 31 * Arrays.hashCode(threads) + Arrays.hashCode(emits);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof StateKey))
+				return false;
+			StateKey other = (StateKey) o;
+			return Arrays.equals(threads, other.threads)
+					&& Arrays.equals(emits, other.emits);
+		}
+	}
+
+	/**
+	 * An open addressing table of the cached transitions plus the states they
+	 * lead to. The transitions can be read without locking, everything else
+	 * is only touched while holding the transducer's lock.
+	 **/
+	private static final class Cache {
+		final AtomicLongArray keys = new AtomicLongArray(1 << CACHE_BITS);
+
+		final AtomicReferenceArray<State> targets = new AtomicReferenceArray<State>(
+				1 << CACHE_BITS);
+
+		final Map<StateKey, State> states = new HashMap<StateKey, State>();
+
+		int transitions = 0;
+	}
+
+	/**
+	 * The rule and position pairs found by the transducer, kept by each
+	 * thread.
+	 **/
+	static final class Scratch {
+
+		/**
+		 * The rule and center of each alternative found in the sentence,
+		 * packed into a long.
+		 **/
+		long[] found = new long[64];
+	}
+}
@@ -0,0 +1,63 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The plain Java version of the {@link VectorEngine} loops, used whenever the
+ * JDK Vector API isn't available. Each part of the rule is checked over the
+ * whole range of positions before moving on to the next part.
+ **/
+final class ScalarKernel implements MatchKernel {
+
+	@Override
+	public void match(int[] columns, int[] ids, int[][] offsets,
+			int[][] sentence, int from, int to, int[] mask) {
+		for (int p = from; p < to; ++p)
+			mask[p] = -1;
+
+		for (int i = 0; i < columns.length; ++i) {
+			int[] working = sentence[columns[i]];
+			int value = ids[i];
+			int[] ofs = offsets[i];
+
+			for (int p = from; p < to; ++p) {
+				// the part holds if the value is found at any of its offsets
+				int holds = 0;
+				for (int j = 0; j < ofs.length; ++j) {
+					if (working[p + ofs[j]] == value)
+						holds = -1;
+				}
+				mask[p] &= holds;
+			}
+		}
+	}
+
+	@Override
+	public int apply(int[] mask, int[] tags, int tag, int from, int to) {
+		int changed = 0;
+		for (int p = from; p < to; ++p) {
+			if (mask[p] != 0 && tags[p] != tag) {
+				tags[p] = tag;
+				++changed;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,339 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the chunk tags of sentences, for text which repeats the
+ * same sentences over and over again. The chunk tags a {@link Chunker}
+ * produces depend on nothing but the words, POS tags and initial chunk tags
+ * of the sentence so a sentence found in the cache is returned exactly as it
+ * would have been chunked.
+ * <p>
+ * The cache is safe to use from many threads at once. To keep them from all
+ * waiting on the same lock a large cache is split into segments, each
+ * evicting on its own, so the eviction order is only followed within each
+ * segment. A sentence which isn't in the cache is chunked without holding a
+ * lock, so two threads may occasionally both chunk the same new sentence.
+ * <p>
+ * Sentences can be cached either as lists of strings or already encoded by
+ * the chunker. An encoded sentence only records the ids of its words, so
+ * sentences which differ only in words that none of the rules use share the
+ * same entry. The cached tags only hold for the rules they were produced by,
+ * so a cache must only ever be used with the one chunker.
+ **/
+public class SentenceCache implements SentenceCacheMBean {
+
+	/**
+	 * The most segments a cache is split into.
+	 **/
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * The smallest number of sentences held by each segment of a cache that is
+	 * split into more than one segment.
+	 **/
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final int maxSize;
+
+	private final CacheEviction eviction;
+
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an empty cache.
+	 * 
+	 * @param maxSize
+	 *            the most sentences to hold.
+	 * @param eviction
+	 *            which sentence to throw away when the cache is full.
+	 **/
+	public SentenceCache(int maxSize, CacheEviction eviction) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException(
+					"The cache must be able to hold at least one sentence");
+
+		this.maxSize = maxSize;
+		this.eviction = eviction;
+
+		// a power of two number of segments, each big enough to be useful
+		int count = 1;
+		while (count < SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE)
+			count *= 2;
+
+		// share out the space so the segments hold maxSize in total
+		segments = new Segment[count];
+		for (int i = 0; i < count; ++i) {
+			segments[i] = new Segment(maxSize / count
+					+ (i < maxSize % count ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns the chunk tags of a sentence from the cache, chunking the
+	 * sentence and adding it to the cache if it isn't already there. The
+	 * arguments and result are the same as for
+	 * {@link Chunker#chunkSentence(List, List, List)}.
+	 * 
+	 * @param chunker
+	 *            the chunker to use if the sentence isn't in the cache.
+	 **/
+	public List<String> chunkSentence(Chunker chunker, List<String> words,
+			List<String> tags, List<String> pos) {
+		Key key = new Key(words, tags, pos);
+		Segment segment = segments[(key.hash ^ (key.hash >>> 16))
+				& (segments.length - 1)];
+
+		@SuppressWarnings("unchecked")
+		List<String> cached = (List<String>) segment.get(key);
+		if (cached != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+			cached = Collections.unmodifiableList(chunker.chunkSentence(words,
+					tags, pos));
+			segment.put(key, cached);
+		}
+
+		// the cached tags are shared so give the caller a copy they own
+		return new ArrayList<String>(cached);
+	}
+
+	/**
+	 * Finds the chunk tags of an encoded sentence in the cache, chunking the
+	 * sentence and adding it to the cache if it isn't already there. The
+	 * arguments are the same as for
+	 * {@link Chunker#chunkSentence(int[], int[], int[], int, int[])} except
+	 * that the sentence starts at an offset within the arrays, and the
+	 * updated tags are written at the same offset of the result.
+	 * 
+	 * @param chunker
+	 *            the chunker to use if the sentence isn't in the cache.
+	 **/
+	public void chunkSentence(Chunker chunker, int[] words, int[] tags,
+			int[] pos, int offset, int length, int[] result) {
+		EncodedKey key = new EncodedKey(words, tags, pos, offset, length);
+		Segment segment = segments[(key.hash ^ (key.hash >>> 16))
+				& (segments.length - 1)];
+
+		int[] cached = (int[]) segment.get(key);
+		if (cached != null) {
+			hits.increment();
+			System.arraycopy(cached, 0, result, offset, length);
+		} else {
+			misses.increment();
+			chunker.chunkSentence(words, tags, pos, offset, length, result);
+			segment.put(key,
+					Arrays.copyOfRange(result, offset, offset + length));
+		}
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments)
+			size += segment.size();
+		return size;
+	}
+
+	@Override
+	public String getEviction() {
+		return eviction.name();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments)
+			segment.clear();
+	}
+
+	@Override
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * One part of the cache. All access to the map goes through the
+	 * synchronized methods. A {@link Key} maps to a list of tags and an
+	 * {@link EncodedKey} to an array of tag ids.
+	 **/
+	private class Segment {
+
+		private final Map<Object, Object> map;
+
+		Segment(final int capacity) {
+			// an access ordered map moves an entry to the end whenever it is
+			// looked up, giving LRU rather than insertion order
+			map = new LinkedHashMap<Object, Object>(16, 0.75f,
+					eviction == CacheEviction.LRU) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Object, Object> eldest) {
+					if (size() <= capacity)
+						return false;
+
+					evictions.increment();
+					return true;
+				}
+			};
+		}
+
+		synchronized Object get(Object key) {
+			return map.get(key);
+		}
+
+		synchronized void put(Object key, Object tags) {
+			map.put(key, tags);
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+
+		synchronized void clear() {
+			map.clear();
+		}
+	}
+
+	/**
+	 * The words, POS tags and initial chunk tags of a sentence.
+	 **/
+	private static final class Key {
+
+		/**
+		 * The word, POS tag and chunk tag of each token in turn.
+		 **/
+		private final String[] tokens;
+
+		private final int hash;
+
+		Key(List<String> words, List<String> tags, List<String> pos) {
+			tokens = new String[words.size() * 3];
+			for (int i = 0, j = 0; i < words.size(); ++i) {
+				tokens[j++] = words.get(i);
+				tokens[j++] = pos.get(i);
+				tokens[j++] = tags.get(i);
+			}
+			hash = Arrays.hashCode(tokens);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+
+			Key other = (Key) o;
+			return hash == other.hash && Arrays.equals(tokens, other.tokens);
+		}
+	}
+
+	/**
+	 * The ids of the words, POS tags and initial chunk tags of an encoded
+	 * sentence.
+	 **/
+	private static final class EncodedKey {
+
+		/**
+		 * The word, POS tag and chunk tag id of each token in turn.
+		 **/
+		private final int[] tokens;
+
+		private final int hash;
+
+		EncodedKey(int[] words, int[] tags, int[] pos, int offset, int length) {
+			tokens = new int[length * 3];
+			for (int i = 0, j = 0; i < length; ++i) {
+				tokens[j++] = words[offset + i];
+				tokens[j++] = pos[offset + i];
+				tokens[j++] = tags[offset + i];
+			}
+			hash = Arrays.hashCode(tokens);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof EncodedKey))
+				return false;
+
+			EncodedKey other = (EncodedKey) o;
+			return hash == other.hash && Arrays.equals(tokens, other.tokens);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+/**
+ * The management interface through which a {@link SentenceCache} is exposed
+ * over JMX.
+ **/
+public interface SentenceCacheMBean {
+
+	/**
+	 * Returns the most sentences the cache will hold.
+	 **/
+	int getMaxSize();
+
+	/**
+	 * Returns the number of sentences currently in the cache.
+	 **/
+	int getSize();
+
+	/**
+	 * Returns the name of the eviction policy.
+	 **/
+	String getEviction();
+
+	/**
+	 * Returns the number of sentences found in the cache.
+	 **/
+	long getHits();
+
+	/**
+	 * Returns the number of sentences which had to be chunked.
+	 **/
+	long getMisses();
+
+	/**
+	 * Returns the fraction of the sentences looked up which were found in the
+	 * cache.
+	 **/
+	double getHitRatio();
+
+	/**
+	 * Returns the number of sentences thrown away to make room for others.
+	 **/
+	long getEvictions();
+
+	/**
+	 * Throws away every sentence in the cache.
+	 **/
+	void clear();
+
+	/**
+	 * Starts counting hits, misses and evictions again from zero.
+	 **/
+	void reset();
+}
@@ -0,0 +1,176 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+
+package mark.chunking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Chunks very long sentences, such as those produced from tables, lists or
+ * OCR output, by splitting them into windows which are chunked in parallel.
+ * Each window is chunked along with a halo of the tokens either side of it,
+ * as the rules look at the tags around each token, and only the tags of the
+ * tokens within the window itself are kept.
+ * <p>
+ * A rule can change a tag which a later rule then looks at, so in theory a
+ * change can ripple any distance along a sentence and no halo is wide enough
+ * to guarantee exactly the same tags as chunking the whole sentence. In
+ * practice the changes die out within a few tokens (on the test corpus a halo
+ * of just 3 tokens gives exactly the same tags) so the default halo leaves a
+ * wide margin, but this is why windowing is only used for sentences too long
+ * to chunk on one core in a reasonable time.
+ **/
+final class SentenceWindows {
+
+	/**
+	 * The default number of tokens either side of a window which are chunked
+	 * along with it.
+	 **/
+	static final int DEFAULT_HALO = 100;
+
+	private final Chunker chunker;
+
+	private final int limit;
+
+	private final int halo;
+
+	/**
+	 * @param chunker
+	 *            the chunker used to chunk each window.
+	 * @param limit
+	 *            sentences with more tokens than this are split into windows
+	 *            of no more than this many tokens.
+	 * @param halo
+	 *            the number of tokens either side of a window which are
+	 *            chunked along with it.
+	 **/
+	SentenceWindows(Chunker chunker, int limit, int halo) {
+		if (limit < 1)
+			throw new IllegalArgumentException("the limit must be positive");
+		if (halo < 0)
+			throw new IllegalArgumentException("the halo can't be negative");
+
+		this.chunker = chunker;
+		this.limit = limit;
+		this.halo = halo;
+	}
+
+	/**
+	 * Returns true if a sentence is long enough to be split into windows.
+	 **/
+	boolean isLong(int length) {
+		return length > limit;
+	}
+
+	/**
+	 * Chunks an encoded sentence, splitting it into windows which are chunked
+	 * in parallel, using the common fork-join pool, if it is longer than the
+	 * limit. The arguments are the same as for
+	 * {@link Chunker#chunkSentence(int[], int[], int[], int, int, int[])}.
+	 **/
+	void chunkSentence(int[] words, int[] tags, int[] pos, int offset,
+			int length, int[] result) {
+		if (!isLong(length)) {
+			chunker.chunkSentence(words, tags, pos, offset, length, result);
+			return;
+		}
+
+		// the result may be the tags array, so take a copy of the initial
+		// tags for the halos to be read from once the windows around them
+		// have been chunked
+		int[] initial = Arrays.copyOfRange(tags, offset, offset + length);
+
+		// split the sentence into windows of roughly equal size
+		int count = (length + limit - 1) / limit;
+		List<Window> windows = new ArrayList<Window>(count);
+		for (int w = 0; w < count; ++w) {
+			windows.add(new Window(words, initial, pos, offset, length,
+					result, (int) ((long) length * w / count),
+					(int) ((long) length * (w + 1) / count)));
+		}
+
+		// each window writes a different part of the result so they can all
+		// be chunked at the same time
+		ForkJoinTask.invokeAll(windows);
+	}
+
+	/**
+	 * One window of a long sentence.
+	 **/
+	private final class Window extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] words, pos, result;
+
+		/**
+		 * The initial tags of the sentence, which unlike the other arrays
+		 * start at the beginning of the array rather than the offset.
+		 **/
+		private final int[] tags;
+
+		private final int offset, length;
+
+		/**
+		 * The first token, relative to the start of the sentence, whose tag
+		 * is kept.
+		 **/
+		private final int from;
+
+		/**
+		 * The token after the last one whose tag is kept.
+		 **/
+		private final int to;
+
+		Window(int[] words, int[] tags, int[] pos, int offset, int length,
+				int[] result, int from, int to) {
+			this.words = words;
+			this.tags = tags;
+			this.pos = pos;
+			this.offset = offset;
+			this.length = length;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			// the window plus its halo, clipped to the sentence
+			int start = Math.max(0, from - halo);
+			int end = Math.min(length, to + halo);
+
+			int[] chunked = new int[end - start];
+			chunker.chunkSentence(
+					Arrays.copyOfRange(words, offset + start, offset + end),
+					Arrays.copyOfRange(tags, start, end),
+					Arrays.copyOfRange(pos, offset + start, offset + end),
+					0, end - start, chunked);
+
+			// and keep just the tags of the window itself
+			System.arraycopy(chunked, from - start, result, offset + from, to
+					- from);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+
+package mark.chunking;
+
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registers MBeans for objects, such as the rule statistics and the sentence
+ * cache, which may be shared between a PR and its duplicates. An object is
+ * registered once, by whichever PR gets to it first, and then stays registered
+ * until every PR which registered it has unregistered it again, so cleaning
+ * up the original PR doesn't take the MBean away from its duplicates.
+ **/
+final class SharedMBeans {
+
+	/**
+	 * The registration of each object, keyed by identity as the objects don't
+	 * override equals.
+	 **/
+	private static final Map<Object, Registration> registered = new IdentityHashMap<Object, Registration>();
+
+	private SharedMBeans() {
+		// only static methods
+	}
+
+	/**
+	 * Registers an object as an MBean, or if it is already registered just
+	 * counts one more user of it.
+	 * 
+	 * @param type
+	 *            the type of the MBean, used in its name.
+	 * @param owner
+	 *            the name of the PR registering it, also used in the name of
+	 *            the MBean if it isn't registered yet.
+	 * @param mbean
+	 *            the object to register.
+	 * @return the name the object is registered under.
+	 **/
+	static synchronized ObjectName register(String type, String owner,
+			Object mbean) throws JMException {
+		Registration registration = registered.get(mbean);
+		if (registration == null) {
+			ObjectName name = new ObjectName("mark.chunking:type=" + type
+					+ ",name="
+					+ ObjectName.quote(owner + "@"
+							+ Integer.toHexString(System.identityHashCode(mbean))));
+			ManagementFactory.getPlatformMBeanServer()
+					.registerMBean(mbean, name);
+
+			registration = new Registration(name);
+			registered.put(mbean, registration);
+		}
+
+		++registration.users;
+		return registration.name;
+	}
+
+	/**
+	 * Counts one less user of an object and, if that was the last, removes
+	 * its MBean.
+	 **/
+	static synchronized void unregister(Object mbean) {
+		Registration registration = registered.get(mbean);
+		if (registration == null || --registration.users > 0)
+			return;
+
+		registered.remove(mbean);
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					registration.name);
+		} catch (JMException e) {
+			// the MBean has already gone so there is nothing to do
+		}
+	}
+
+	private static final class Registration {
+		final ObjectName name;
+
+		/**
+		 * The number of times the object has been registered and not yet
+		 * unregistered.
+		 **/
+		int users = 0;
+
+		Registration(ObjectName name) {
+			this.name = name;
+		}
+	}
+}
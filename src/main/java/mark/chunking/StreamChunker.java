@@ -0,0 +1,322 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Chunks a stream of POS tagged tokens without needing GATE. The input has
+ * one token per line, holding the word and its POS tag separated by a tab,
+ * with a blank line after each sentence. The output is the same, but with the
+ * chunk tag of each token added as a third column. For example:
+ * 
+ * <pre>
+ * java mark.chunking.StreamChunker -threads 4 tagged.txt &gt; chunked.txt
+ * </pre>
+ * 
+ * The input is read from the files given on the command line or, if there
+ * aren't any, from stdin. The -engine option picks the {@link ChunkerEngine}
+ * (by default COMPILED) and -unknown the initial chunk tag of a POS tag which
+ * isn't in the dictionary (by default I). Only a bounded number of sentences are held in
+ * memory at once, and when more than one thread is used the sentences are
+ * still written out in the order they were read.
+ **/
+public class StreamChunker {
+
+	/**
+	 * The number of sentences, per thread, that can be waiting to be written
+	 * out.
+	 **/
+	private static final int SENTENCES_PER_THREAD = 64;
+
+	private final Chunker chunker;
+
+	private final Map<String, String> chunkTags;
+
+	private final String unknownTag;
+
+	/**
+	 * Creates a chunker for streams of tokens.
+	 * 
+	 * @param chunker
+	 *            the chunker used to chunk each sentence.
+	 * @param chunkTags
+	 *            the initial chunk tag for each POS tag.
+	 * @param unknownTag
+	 *            the initial chunk tag for a POS tag which isn't in chunkTags.
+	 **/
+	public StreamChunker(Chunker chunker, Map<String, String> chunkTags,
+			String unknownTag) {
+		this.chunker = chunker;
+		this.chunkTags = chunkTags;
+		this.unknownTag = unknownTag;
+	}
+
+	/**
+	 * Chunks every sentence read from the input, writing the chunked sentences
+	 * to the output in the same order.
+	 * 
+	 * @param in
+	 *            the tokens to chunk.
+	 * @param out
+	 *            where the chunked tokens are written.
+	 * @param threads
+	 *            the number of threads used to chunk the sentences.
+	 **/
+	public void process(BufferedReader in, Writer out, int threads)
+			throws IOException {
+		if (threads <= 1) {
+			process(in, out, null, 1);
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			process(in, out, pool, threads);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Chunks every sentence read from the input using an existing pool of
+	 * threads, so that one pool can be shared by several inputs. The pool is
+	 * left running.
+	 * 
+	 * @param in
+	 *            the tokens to chunk.
+	 * @param out
+	 *            where the chunked tokens are written.
+	 * @param pool
+	 *            the threads used to chunk the sentences, or null to chunk
+	 *            them on the calling thread.
+	 * @param threads
+	 *            the number of threads in the pool, which bounds the number
+	 *            of sentences held in memory.
+	 **/
+	public void process(BufferedReader in, Writer out, ExecutorService pool,
+			int threads) throws IOException {
+		if (pool == null) {
+			List<String> sentence;
+			while ((sentence = readSentence(in)) != null) {
+				out.write(chunk(sentence));
+			}
+			return;
+		}
+
+		// the sentences which are being chunked, oldest first
+		Deque<Future<String>> queue = new ArrayDeque<Future<String>>();
+		try {
+			List<String> sentence;
+			while ((sentence = readSentence(in)) != null) {
+				// if there are already enough sentences in flight then wait
+				// for the oldest and write it out before reading any more
+				if (queue.size() == Math.max(threads, 1)
+						* SENTENCES_PER_THREAD)
+					out.write(get(queue.remove()));
+
+				final List<String> lines = sentence;
+				queue.add(pool.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return chunk(lines);
+					}
+				}));
+			}
+
+			while (!queue.isEmpty()) {
+				out.write(get(queue.remove()));
+			}
+		} finally {
+			// the pool outlives this input, so don't leave it chunking
+			// sentences which will never be written out
+			for (Future<String> future : queue)
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * Reads the lines of the next sentence, skipping any blank lines before
+	 * it.
+	 * 
+	 * @return the lines of the sentence, or null at the end of the input.
+	 **/
+	static List<String> readSentence(BufferedReader in)
+			throws IOException {
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				lines.add(line);
+			} else if (!lines.isEmpty()) {
+				break;
+			}
+		}
+		return lines.isEmpty() ? null : lines;
+	}
+
+	/**
+	 * Chunks the lines of a sentence, each holding a word and then, after a
+	 * tab, its POS tag. A line without a POS tag starts with the unknown chunk
+	 * tag. This is shared with the {@link RulePruner} so that both read a
+	 * corpus in exactly the same way.
+	 * 
+	 * @param words
+	 *            filled in with the word of each line.
+	 * @param pos
+	 *            filled in with the POS tag of each line, or null for a line
+	 *            without one.
+	 * @return the chunk tag of each line.
+	 **/
+	static List<String> chunkLines(Chunker chunker,
+			Map<String, String> chunkTags, String unknownTag,
+			List<String> lines, List<String> words, List<String> pos) {
+		List<String> tags = new ArrayList<String>(lines.size());
+
+		for (String line : lines) {
+			String[] columns = line.split("\t");
+			String p = columns.length > 1 ? columns[1] : null;
+			String tag = chunkTags.get(p);
+
+			words.add(columns[0]);
+			pos.add(p);
+			tags.add(tag == null ? unknownTag : tag);
+		}
+
+		return chunker.chunkSentence(words, tags, pos);
+	}
+
+	/**
+	 * Chunks a single sentence.
+	 * 
+	 * @param lines
+	 *            the lines of the sentence, each holding a word and POS tag.
+	 * @return the chunked sentence, including the blank line which ends it.
+	 **/
+	String chunk(List<String> lines) {
+		List<String> words = new ArrayList<String>(lines.size());
+		List<String> pos = new ArrayList<String>(lines.size());
+		List<String> tags = chunkLines(chunker, chunkTags, unknownTag, lines,
+				words, pos);
+
+		StringBuilder chunked = new StringBuilder();
+		for (int i = 0; i < lines.size(); ++i) {
+			chunked.append(words.get(i)).append('\t');
+			if (pos.get(i) != null)
+				chunked.append(pos.get(i));
+			chunked.append('\t').append(tags.get(i)).append('\n');
+		}
+		return chunked.append('\n').toString();
+	}
+
+	private static String get(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to chunk a sentence", e.getCause());
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int threads = 1;
+		ChunkerEngine engine = ChunkerEngine.COMPILED;
+		String unknownTag = "I";
+		List<String> files = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-engine") && i + 1 < args.length) {
+				engine = ChunkerEngine.valueOf(args[++i]);
+			} else if (args[i].equals("-unknown") && i + 1 < args.length) {
+				unknownTag = args[++i];
+			} else if (args[i].startsWith("-")) {
+				System.err.println("Usage: java "
+						+ StreamChunker.class.getName()
+						+ " [-threads n] [-engine "
+						+ Arrays.toString(ChunkerEngine.values())
+						+ "] [-unknown tag] [file ...]");
+				System.exit(1);
+			} else {
+				files.add(args[i]);
+			}
+		}
+
+		// use the rules and POS tag dictionary packaged with the chunker
+		URL rules = StreamChunker.class.getResource("/resources/rules");
+		URL posTags = StreamChunker.class
+				.getResource("/resources/pos_tag_dict");
+
+		StreamChunker chunker = new StreamChunker(new Chunker(rules, engine),
+				CompiledModel.readChunkTags(posTags), unknownTag);
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+				StandardCharsets.UTF_8), 1 << 16);
+
+		// one pool is shared by all the input files
+		ExecutorService pool = threads > 1 ? Executors
+				.newFixedThreadPool(threads) : null;
+		try {
+			if (files.isEmpty()) {
+				chunker.process(open(System.in), out, pool, threads);
+			} else {
+				for (String file : files) {
+					try (BufferedReader in = open(new FileInputStream(file))) {
+						chunker.process(in, out, pool, threads);
+					}
+				}
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdownNow();
+		}
+
+		out.flush();
+	}
+
+	private static BufferedReader open(InputStream in) {
+		return new BufferedReader(new InputStreamReader(in,
+				StandardCharsets.UTF_8), 1 << 16);
+	}
+}
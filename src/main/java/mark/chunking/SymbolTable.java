@@ -0,0 +1,105 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A simple table which interns strings (words, POS tags or chunk tags) as
+ * consecutive integer ids so that rules can be matched using integer
+ * comparisons rather than String.equals.
+ **/
+class SymbolTable implements Serializable {
+	private static final long serialVersionUID = -3907624216154437553L;
+
+	/**
+	 * The id returned for any string which isn't in the table. This never
+	 * equals the id of a symbol so it can never match part of a rule.
+	 **/
+	static final int NONE = -1;
+
+	/**
+	 * A Map from each symbol to its id.
+	 **/
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	/**
+	 * The symbols in the order they were added, so that the id of a symbol
+	 * is its index within this list.
+	 **/
+	private List<String> symbols = new ArrayList<String>();
+
+	/**
+	 * Returns the id of a symbol adding it to the table if it isn't already
+	 * present.
+	 *
+	 * @param symbol
+	 *            the symbol to intern.
+	 * @return the id of the symbol.
+	 **/
+	int intern(String symbol) {
+		Integer id = ids.get(symbol);
+
+		if (id == null) {
+			// we haven't seen this symbol before so give it the next id
+			id = symbols.size();
+			symbols.add(symbol);
+			ids.put(symbol, id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the id of a symbol without modifying the table.
+	 *
+	 * @param symbol
+	 *            the symbol to find, may be null.
+	 * @return the id of the symbol or {@link #NONE} if it isn't in the table.
+	 **/
+	int lookup(String symbol) {
+		Integer id = ids.get(symbol);
+		return id == null ? NONE : id.intValue();
+	}
+
+	/**
+	 * Returns the symbol with the given id.
+	 *
+	 * @param id
+	 *            the id of the symbol.
+	 * @return the symbol with the given id.
+	 **/
+	String get(int id) {
+		return symbols.get(id);
+	}
+
+	/**
+	 * Returns the number of symbols in the table.
+	 *
+	 * @return the number of symbols in the table.
+	 **/
+	int size() {
+		return symbols.size();
+	}
+}
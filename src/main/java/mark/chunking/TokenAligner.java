@@ -0,0 +1,107 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the tokens contained within each sentence of a document. Rather than
+ * querying the annotation set and sorting the result for every sentence, the
+ * tokens and sentences are each sorted once and then walked together in a
+ * single merge pass.
+ **/
+final class TokenAligner {
+
+	private TokenAligner() {
+		// only static methods
+	}
+
+	/**
+	 * Finds the tokens within each sentence, where a token is within a
+	 * sentence if it starts at or after the start of the sentence but before
+	 * its end, and ends at or before the end of the sentence. This is the same
+	 * definition getContained uses, so a zero length token at the very end of
+	 * a sentence isn't part of it.
+	 * 
+	 * @param sentenceStart
+	 *            the start offset of each sentence.
+	 * @param sentenceEnd
+	 *            the end offset of each sentence.
+	 * @param tokenStart
+	 *            the start offset of each token, which must be sorted by start
+	 *            offset.
+	 * @param tokenEnd
+	 *            the end offset of each token.
+	 * @return for each sentence the (ascending) indexes of the tokens within
+	 *         it.
+	 **/
+	static int[][] align(long[] sentenceStart, long[] sentenceEnd,
+			long[] tokenStart, long[] tokenEnd) {
+		return align(sentenceStart, sentenceEnd, tokenStart, tokenEnd,
+				tokenStart.length);
+	}
+
+	/**
+	 * Finds the tokens within each sentence when only the first tokens
+	 * entries of the token arrays are in use.
+	 * 
+	 * @see #align(long[], long[], long[], long[])
+	 **/
+	static int[][] align(final long[] sentenceStart, long[] sentenceEnd,
+			long[] tokenStart, long[] tokenEnd, int tokens) {
+		int[][] contained = new int[sentenceStart.length][];
+
+		// visit the sentences in order of their start offset so that the
+		// first token which could be in each sentence only ever moves forward
+		Integer[] order = new Integer[sentenceStart.length];
+		for (int i = 0; i < order.length; ++i)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(sentenceStart[a], sentenceStart[b]);
+			}
+		});
+
+		int[] buffer = new int[16];
+		int first = 0;
+		for (int s : order) {
+			// skip any tokens which start before this sentence
+			while (first < tokens && tokenStart[first] < sentenceStart[s])
+				++first;
+
+			// then collect those which start within the sentence, strictly
+			// before its end, but only keep the ones which also end within it
+			int count = 0;
+			for (int t = first; t < tokens && tokenStart[t] < sentenceEnd[s]; ++t) {
+				if (tokenEnd[t] <= sentenceEnd[s]) {
+					if (count == buffer.length)
+						buffer = Arrays.copyOf(buffer, count * 2);
+					buffer[count++] = t;
+				}
+			}
+
+			contained[s] = Arrays.copyOf(buffer, count);
+		}
+
+		return contained;
+	}
+}
@@ -0,0 +1,228 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import gate.Annotation;
+import gate.FeatureMap;
+import gate.Node;
+import gate.util.OffsetComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar copy of the tokens of a document, in document order, holding
+ * just what the chunker and the annotation output need: the encoded word, POS
+ * tag and initial chunk tag of each token along with its offsets, its nodes
+ * and the token itself. It is built in one pass over the tokens, with the
+ * initial chunk tag worked out once for each POS tag rather than for every
+ * token, and the arrays are only ever grown so a snapshot can be reused for
+ * document after document.
+ **/
+final class TokenSnapshot {
+
+	/**
+	 * Marks a POS tag whose initial chunk tag hasn't been worked out yet.
+	 **/
+	private static final int NOT_SEEN = -2;
+
+	/**
+	 * The number of tokens in the snapshot.
+	 **/
+	int size;
+
+	/**
+	 * The id of the word of each token.
+	 **/
+	int[] words = new int[0];
+
+	/**
+	 * The id of the POS tag of each token.
+	 **/
+	int[] pos = new int[0];
+
+	/**
+	 * The id of the initial chunk tag of each token.
+	 **/
+	int[] tags = new int[0];
+
+	/**
+	 * The start offset of each token.
+	 **/
+	long[] start = new long[0];
+
+	/**
+	 * The end offset of each token.
+	 **/
+	long[] end = new long[0];
+
+	/**
+	 * The start node of each token.
+	 **/
+	Node[] startNodes = new Node[0];
+
+	/**
+	 * The end node of each token.
+	 **/
+	Node[] endNodes = new Node[0];
+
+	/**
+	 * The token annotations themselves.
+	 **/
+	Annotation[] annotations = new Annotation[0];
+
+	/**
+	 * The initial chunk tag of each token whose tag isn't used by the rules,
+	 * and so has no id, or null if every token's tag has an id.
+	 **/
+	String[] unknownTags;
+
+	/**
+	 * For each POS id, the id of its initial chunk tag or {@link #NOT_SEEN}.
+	 **/
+	private int[] tagIds = new int[0];
+
+	/**
+	 * For each POS id, its initial chunk tag.
+	 **/
+	private String[] tagNames = new String[0];
+
+	/**
+	 * Takes a snapshot of the tokens of a document, replacing the previous
+	 * contents.
+	 * 
+	 * @param tokens
+	 *            the tokens of the document, in any order.
+	 * @param posFeature
+	 *            the name of the feature holding the POS tag.
+	 * @param chunker
+	 *            the chunker whose ids are used to encode the tokens.
+	 * @param chunkTags
+	 *            the initial chunk tag of each POS tag.
+	 * @param unknownTag
+	 *            the initial chunk tag of a POS tag not in chunkTags.
+	 **/
+	void read(Collection<Annotation> tokens, String posFeature,
+			Chunker chunker, Map<String, String> chunkTags, String unknownTag) {
+		List<Annotation> sorted = new ArrayList<Annotation>(tokens);
+		Collections.sort(sorted, new OffsetComparator());
+
+		size = sorted.size();
+		ensureCapacity(size);
+		unknownTags = null;
+
+		// the initial chunk tags depend on the POS tag dictionary and the
+		// unknown tag, which may have changed since the last document
+		int posSymbols = chunker.getSymbols(Chunker.POS).size();
+		if (tagIds.length < posSymbols) {
+			tagIds = new int[posSymbols];
+			tagNames = new String[posSymbols];
+		}
+		Arrays.fill(tagIds, NOT_SEEN);
+
+		for (int i = 0; i < size; ++i) {
+			Annotation token = sorted.get(i);
+			FeatureMap features = token.getFeatures();
+
+			String posTag = (String) features.get(posFeature);
+			int posId = chunker.getId(Chunker.POS, posTag);
+
+			words[i] = chunker.getId(Chunker.WORD,
+					(String) features.get("string"));
+			pos[i] = posId;
+
+			if (posId != Chunker.UNKNOWN && tagIds[posId] != NOT_SEEN) {
+				// we've already seen this POS tag
+				tags[i] = tagIds[posId];
+				if (tags[i] == Chunker.UNKNOWN)
+					unknownTag(i, tagNames[posId]);
+			} else {
+				// get the initial chunk tag for this POS tag, using the
+				// unknown chunk tag if it isn't in the dictionary
+				String chunkTag = chunkTags.get(posTag);
+				if (chunkTag == null)
+					chunkTag = unknownTag;
+
+				tags[i] = chunker.getId(Chunker.TAG, chunkTag);
+				if (tags[i] == Chunker.UNKNOWN)
+					unknownTag(i, chunkTag);
+
+				if (posId != Chunker.UNKNOWN) {
+					tagIds[posId] = tags[i];
+					tagNames[posId] = chunkTag;
+				}
+			}
+
+			annotations[i] = token;
+			startNodes[i] = token.getStartNode();
+			endNodes[i] = token.getEndNode();
+			start[i] = startNodes[i].getOffset();
+			end[i] = endNodes[i].getOffset();
+		}
+	}
+
+	/**
+	 * Returns the initial chunk tag of a token.
+	 **/
+	String getInitialTag(Chunker chunker, int token) {
+		return tags[token] == Chunker.UNKNOWN ? unknownTags[token] : chunker
+				.getValue(Chunker.TAG, tags[token]);
+	}
+
+	/**
+	 * Forgets the tokens and their nodes so that the snapshot doesn't keep the
+	 * document they belong to from being garbage collected.
+	 **/
+	void clear() {
+		Arrays.fill(startNodes, 0, size, null);
+		Arrays.fill(endNodes, 0, size, null);
+		Arrays.fill(annotations, 0, size, null);
+		unknownTags = null;
+		size = 0;
+	}
+
+	/**
+	 * Records the initial chunk tag of a token which has no id.
+	 **/
+	private void unknownTag(int token, String tag) {
+		if (unknownTags == null)
+			unknownTags = new String[words.length];
+		unknownTags[token] = tag;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (words.length >= capacity)
+			return;
+
+		capacity = Math.max(capacity, words.length * 2);
+		words = new int[capacity];
+		pos = new int[capacity];
+		tags = new int[capacity];
+		start = new long[capacity];
+		end = new long[capacity];
+		startNodes = new Node[capacity];
+		endNodes = new Node[capacity];
+		annotations = new Annotation[capacity];
+	}
+}
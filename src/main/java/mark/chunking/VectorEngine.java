@@ -0,0 +1,211 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.List;
+
+/**
+ * The engine behind {@link ChunkerEngine#VECTOR} which evaluates each rule at
+ * every position of the sentence at once, a part at a time, so that the
+ * comparisons can be done with SIMD instructions. The matches are recorded in
+ * a mask before any tags are changed, which stops rule-chaining, and are then
+ * blended into the chunk tags. Rules with a W or P part whose value doesn't
+ * occur anywhere in the sentence are skipped without being evaluated.
+ * <p>
+ * The SIMD loops need the JDK Vector API, which is only compiled in when
+ * building with the vector profile on JDK 16 or later and can only be used
+ * when the JVM is started with <code>--add-modules jdk.incubator.vector</code>.
+ * Otherwise, or when the system property <code>mark.chunking.vector</code> is
+ * false, the same algorithm runs as plain loops.
+ **/
+class VectorEngine extends RuleEngine<VectorEngine.Scratch> {
+	private static final long serialVersionUID = 3404893009574112391L;
+
+	/**
+	 * The kernel used by default, which holds no state so is shared by every
+	 * engine.
+	 **/
+	private static final MatchKernel KERNEL = createKernel(!"false"
+			.equals(System.getProperty("mark.chunking.vector")));
+
+	/**
+	 * The column of each part of each rule.
+	 **/
+	private final int[][] columns;
+
+	/**
+	 * The value id of each part of each rule.
+	 **/
+	private final int[][] ids;
+
+	/**
+	 * The offsets of each part of each rule.
+	 **/
+	private final int[][][] offsets;
+
+	/**
+	 * The kernel this engine uses, or null for the default.
+	 **/
+	private final transient MatchKernel kernel;
+
+	VectorEngine(List<Rule> rules) {
+		this(rules, null);
+	}
+
+	/**
+	 * Creates an engine which uses a specific kernel, so that the kernels can
+	 * be compared against each other.
+	 * 
+	 * @param kernel
+	 *            the kernel to use, or null for the default.
+	 **/
+	VectorEngine(List<Rule> rules, MatchKernel kernel) {
+		super(rules);
+		this.kernel = kernel;
+
+		columns = new int[this.rules.length][];
+		ids = new int[this.rules.length][];
+		offsets = new int[this.rules.length][][];
+		for (int r = 0; r < this.rules.length; ++r) {
+			Rule rule = this.rules[r];
+			int parts = rule.getPartCount();
+			columns[r] = new int[parts];
+			ids[r] = new int[parts];
+			offsets[r] = new int[parts][];
+			for (int i = 0; i < parts; ++i) {
+				columns[r][i] = rule.getColumn(i);
+				ids[r][i] = rule.getValueId(i);
+				offsets[r][i] = rule.getOffsets(i);
+			}
+		}
+	}
+
+	/**
+	 * Creates the kernel which does the actual matching.
+	 * 
+	 * @param vectorize
+	 *            true to use the Vector API if it is available.
+	 * @return the SIMD kernel if it was wanted and could be loaded, otherwise
+	 *         the scalar kernel.
+	 **/
+	static MatchKernel createKernel(boolean vectorize) {
+		if (vectorize) {
+			try {
+				// the class is missing when built on an older JDK, can't be
+				// loaded by an older JVM, and can't be initialized if the
+				// incubator module hasn't been added, in all of which cases we
+				// just use the scalar kernel
+				return (MatchKernel) Class
+						.forName("mark.chunking.VectorKernel")
+						.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				// fall through to the scalar kernel
+			} catch (LinkageError e) {
+				// fall through to the scalar kernel
+			}
+		}
+		return new ScalarKernel();
+	}
+
+	/**
+	 * Returns true if the rules are being matched using SIMD instructions.
+	 **/
+	static boolean isVectorized() {
+		return !(KERNEL instanceof ScalarKernel);
+	}
+
+	@Override
+	Scratch newScratch() {
+		return new Scratch();
+	}
+
+	@Override
+	void apply(Workspace workspace, Scratch scratch, int numTokens) {
+		int[][] sentence = workspace.sentence;
+		int[] tags = sentence[Chunker.TAG];
+		if (scratch.mask.length < workspace.capacity())
+			scratch.mask = new int[workspace.capacity()];
+		int[] mask = scratch.mask;
+		MatchKernel k = kernel == null ? KERNEL : kernel;
+
+		// index the sentence so we can tell which rules can't possibly match
+		AnchorIndex index = workspace.index;
+		index.index(sentence, numTokens);
+
+		RuleCounters counters = workspace.counters;
+		for (int r = 0; r < rules.length; ++r) {
+			Rule rule = rules[r];
+
+			// the range of positions at which the rule fits in the sentence
+			int from = Math.max(0, -rule.getBegin());
+			int to = Math.min(numTokens, numTokens - rule.getEnd());
+
+			if (from >= to)
+				continue;
+
+			if (!occurs(r, index)) {
+				++workspace.skipped;
+				continue;
+			}
+
+			if (counters != null)
+				counters.startRule(workspace.tried);
+
+			workspace.tried += to - from;
+
+			k.match(columns[r], ids[r], offsets[r], sentence, from, to, mask);
+			int changed = k.apply(mask, tags, rule.getNewTagId(), from, to);
+
+			if (counters != null) {
+				int matched = 0;
+				for (int p = from; p < to; ++p) {
+					if (mask[p] != 0)
+						++matched;
+				}
+				counters.endRule(r, workspace.tried, matched, changed);
+			}
+		}
+	}
+
+	/**
+	 * Returns false if a rule has a W or P part whose value doesn't occur
+	 * anywhere in the sentence, so that the rule can't match.
+	 **/
+	private boolean occurs(int r, AnchorIndex index) {
+		for (int i = 0; i < columns[r].length; ++i) {
+			if (columns[r][i] != Chunker.TAG
+					&& index.count(columns[r][i], ids[r][i]) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The positions at which the current rule matched, kept by each thread.
+	 **/
+	static final class Scratch {
+
+		/**
+		 * -1 at each position the current rule matched and 0 where it
+		 * didn't.
+		 **/
+		int[] mask = new int[0];
+	}
+}
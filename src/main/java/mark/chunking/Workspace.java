@@ -0,0 +1,162 @@
+/************************************************************************
+ *         Copyright (C) 2004-2016 The University of Sheffield          *
+ *       Developed by Mark Greenwood <m.greenwood@dcs.shef.ac.uk>       *
+ *                                                                      *
+ * This program is free software; you can redistribute it and/or modify *
+ * it under the terms of the GNU Lesser General Public License as       *
+ * published by the Free Software Foundation; either version 2.1 of the *
+ * License, or (at your option) any later version.                      *
+ *                                                                      *
+ * This program is distributed in the hope that it will be useful,      *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of       *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the        *
+ * GNU General Public License for more details.                         *
+ *                                                                      *
+ * You should have received a copy of the GNU Lesser General Public     *
+ * License along with this program; if not, write to the Free Software  *
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.            *
+ ************************************************************************/
+
+package mark.chunking;
+
+import java.util.Arrays;
+
+/**
+ * The buffers used while chunking a sentence. Each thread using a
+ * {@link Chunker} gets its own workspace which is reused, and only ever
+ * grown, so that once it is large enough for the longest sentence seen
+ * chunking a sentence allocates nothing. The workspace holds what every
+ * engine needs, the encoded sentence, its anchor index and the positions a
+ * rule matched at, along with the scratch space of the chunker's engine.
+ **/
+class Workspace {
+
+	/**
+	 * The encoded sentence, including the end of sentence marker, indexed
+	 * first by column and then by token. The chunk tags are updated in place
+	 * as the rules are applied.
+	 **/
+	final int[][] sentence = new int[3][];
+
+	/**
+	 * Whether the sentence buffers hold a whole document, each sentence
+	 * followed by its own end of sentence marker, rather than just one
+	 * sentence. Only engines which support documents are ever given one.
+	 **/
+	boolean document;
+
+	/**
+	 * When holding a document, the position of the first token of the
+	 * sentence containing each position.
+	 **/
+	int[] sentenceStart;
+
+	/**
+	 * When holding a document, the position of the end of sentence marker of
+	 * the sentence containing each position.
+	 **/
+	int[] sentenceEnd;
+
+	/**
+	 * The number of documents chunked, which differs from one document to
+	 * the next so that an engine can tell when anything it worked out from
+	 * the sentence bounds is out of date.
+	 **/
+	int documentCount;
+
+	/**
+	 * The positions at which the current rule matched. The new tag is only
+	 * written to these positions once the rule has been tried everywhere, so
+	 * that this acts as the second tag buffer and stops rule-chaining.
+	 **/
+	int[] matches;
+
+	/**
+	 * The number of rule and position pairs tried while chunking the current
+	 * sentence.
+	 **/
+	long tried;
+
+	/**
+	 * The number of rules which weren't applied to the current sentence at
+	 * all because a value they need doesn't occur in it.
+	 **/
+	int skipped;
+
+	/**
+	 * The anchor index for the sentence.
+	 **/
+	final AnchorIndex index;
+
+	/**
+	 * The scratch space of the engine, created by
+	 * {@link RuleEngine#newScratch()}.
+	 **/
+	final Object scratch;
+
+	/**
+	 * The statistics this workspace is counting into, if any.
+	 **/
+	RuleStatistics statistics;
+
+	/**
+	 * This thread's counters for the statistics, or null if statistics aren't
+	 * being collected.
+	 **/
+	RuleCounters counters;
+
+	Workspace(int wordSymbols, int posSymbols, int tagSymbols, Object scratch) {
+		index = new AnchorIndex(wordSymbols, posSymbols, tagSymbols);
+		this.scratch = scratch;
+		allocate(64);
+	}
+
+	/**
+	 * Makes sure the buffers can hold a sentence of the given length.
+	 * 
+	 * @param numTokens
+	 *            the number of tokens in the sentence, including the end of
+	 *            sentence marker.
+	 **/
+	void ensureCapacity(int numTokens) {
+		if (matches.length < numTokens)
+			allocate(Math.max(numTokens, matches.length * 2));
+	}
+
+	/**
+	 * Returns the number of tokens the buffers can hold, which engines use
+	 * to size their own scratch space so that it grows in step.
+	 **/
+	int capacity() {
+		return matches.length;
+	}
+
+	/**
+	 * Starts counting into a different set of statistics.
+	 * 
+	 * @param statistics
+	 *            the statistics to count into, or null to stop counting.
+	 **/
+	void attach(RuleStatistics statistics) {
+		this.statistics = statistics;
+		counters = statistics == null ? null : statistics.newCounters();
+	}
+
+	/**
+	 * Marks the workspace as holding a document, whose sentence bounds must
+	 * be filled in by the caller.
+	 **/
+	void startDocument() {
+		++documentCount;
+		document = true;
+	}
+
+	private void allocate(int capacity) {
+		sentence[Chunker.WORD] = new int[capacity];
+		sentence[Chunker.POS] = new int[capacity];
+		sentence[Chunker.TAG] = new int[capacity];
+		matches = new int[capacity];
+		sentenceStart = new int[capacity];
+		sentenceEnd = new int[capacity];
+	}
+}
@@ -0,0 +1,430 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ChunkerTest {
+
+	private static Chunker chunker;
+
+	private static Chunker transducer;
+
+	private static Chunker incremental;
+
+	private static Chunker vector;
+
+	private static Chunker packed;
+
+	private static List<Sentence> sentences;
+
+	@BeforeClass
+	public static void loadChunker() throws IOException {
+		URL rules = ChunkerTest.class.getResource("/resources/rules");
+		chunker = new Chunker(rules);
+		transducer = new Chunker(rules, ChunkerEngine.TRANSDUCER);
+		incremental = new Chunker(rules, ChunkerEngine.INCREMENTAL);
+		vector = new Chunker(rules, ChunkerEngine.VECTOR);
+		packed = new Chunker(rules, ChunkerEngine.PACKED);
+
+		sentences = new ArrayList<Sentence>();
+		sentences.addAll(readSentences());
+		sentences.addAll(randomSentences(rules, new Random(42), 500));
+	}
+
+	@Test
+	public void testCompiledMatchesReference() {
+		long skipped = chunker.getRulesSkipped();
+		for (Sentence s : sentences) {
+			assertEquals(s.toString(),
+					chunker.chunkSentenceReference(s.words, s.tags, s.pos),
+					chunker.chunkSentence(s.words, s.tags, s.pos));
+		}
+		assertTrue(chunker.getRulesSkipped() > skipped);
+	}
+
+	@Test
+	public void testTransducerMatchesReference() {
+		// run everything twice so the second pass uses the cached states
+		for (int i = 0; i < 2; ++i) {
+			for (Sentence s : sentences) {
+				assertEquals(s.toString(), chunker.chunkSentenceReference(
+						s.words, s.tags, s.pos), transducer.chunkSentence(
+						s.words, s.tags, s.pos));
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalMatchesReference() {
+		long skipped = incremental.getPositionsSkipped();
+		for (Sentence s : sentences) {
+			assertEquals(s.toString(),
+					chunker.chunkSentenceReference(s.words, s.tags, s.pos),
+					incremental.chunkSentence(s.words, s.tags, s.pos));
+		}
+		assertTrue(incremental.getPositionsSkipped() > skipped);
+	}
+
+	@Test
+	public void testVectorMatchesReference() {
+		for (Sentence s : sentences) {
+			assertEquals(s.toString(),
+					chunker.chunkSentenceReference(s.words, s.tags, s.pos),
+					vector.chunkSentence(s.words, s.tags, s.pos));
+		}
+	}
+
+	@Test
+	public void testPackedMatchesReference() {
+		for (Sentence s : sentences) {
+			assertEquals(s.toString(),
+					chunker.chunkSentenceReference(s.words, s.tags, s.pos),
+					packed.chunkSentence(s.words, s.tags, s.pos));
+		}
+	}
+
+	@Test
+	public void testDocumentMatchesSentences() {
+		// include an empty sentence, which is just an end of sentence marker
+		// in the middle of the document
+		List<Sentence> document = new ArrayList<Sentence>(sentences);
+		document.add(sentences.size() / 2, new Sentence());
+
+		List<List<String>> words = new ArrayList<List<String>>();
+		List<List<String>> tags = new ArrayList<List<String>>();
+		List<List<String>> pos = new ArrayList<List<String>>();
+		for (Sentence s : document) {
+			words.add(s.words);
+			tags.add(s.tags);
+			pos.add(s.pos);
+		}
+
+		for (Chunker c : new Chunker[] { chunker, transducer, incremental,
+				vector, packed }) {
+			List<List<String>> result = c.chunkSentences(words, tags, pos);
+			assertEquals(document.size(), result.size());
+			for (int i = 0; i < document.size(); ++i) {
+				Sentence s = document.get(i);
+				assertEquals(s.toString(),
+						chunker.chunkSentenceReference(s.words, s.tags, s.pos),
+						result.get(i));
+			}
+
+			// and through the encoded API, updating the tags in place
+			int[] lengths = new int[document.size()];
+			int total = 0;
+			for (int i = 0; i < lengths.length; ++i) {
+				lengths[i] = document.get(i).words.size();
+				total += lengths[i];
+			}
+
+			int[][] encoded = new int[3][total];
+			int[] expected = new int[total];
+			int offset = 0;
+			for (Sentence s : document) {
+				int[][] one = new int[3][s.words.size()];
+				for (int j = 0; j < s.words.size(); ++j) {
+					one[Chunker.WORD][j] = c.getId(Chunker.WORD,
+							s.words.get(j));
+					one[Chunker.POS][j] = c.getId(Chunker.POS, s.pos.get(j));
+					one[Chunker.TAG][j] = c.getId(Chunker.TAG, s.tags.get(j));
+				}
+				for (int col = 0; col < 3; ++col)
+					System.arraycopy(one[col], 0, encoded[col], offset,
+							one[col].length);
+				System.arraycopy(c.chunkSentence(one[Chunker.WORD],
+						one[Chunker.TAG], one[Chunker.POS]), 0, expected,
+						offset, s.words.size());
+				offset += s.words.size();
+			}
+
+			c.chunkDocument(encoded[Chunker.WORD], encoded[Chunker.TAG],
+					encoded[Chunker.POS], lengths, lengths.length,
+					encoded[Chunker.TAG]);
+			assertEquals(Arrays.toString(expected),
+					Arrays.toString(encoded[Chunker.TAG]));
+		}
+	}
+
+	@Test
+	public void testByteOrderMarkIsSkipped() throws IOException {
+		File file = File.createTempFile("bom", ".rules");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "\uFEFFT0P0 I DT B\nT0 B O\n"
+				.getBytes(StandardCharsets.UTF_8));
+
+		List<Rule> loaded = new Chunker(file.toURI().toURL()).getRules();
+		assertEquals(2, loaded.size());
+		assertEquals("T0P0 I DT B", loaded.get(0).toString());
+	}
+
+	@Test
+	public void testInputIsNotModified() {
+		for (Sentence s : sentences) {
+			Sentence copy = s.copy();
+			chunker.chunkSentence(s.words, s.tags, s.pos);
+			assertEquals(copy.toString(), s.toString());
+		}
+	}
+
+	@Test
+	public void testUnknownTagIsPreserved() {
+		List<String> words = Arrays.asList("a", "new", "thing");
+		List<String> pos = Arrays.asList("DT", "JJ", "XYZ");
+		List<String> tags = Arrays.asList("I", "I", "X");
+
+		for (Chunker c : new Chunker[] { chunker, transducer, incremental,
+				vector, packed }) {
+			assertEquals(chunker.chunkSentenceReference(words, tags, pos),
+					c.chunkSentence(words, tags, pos));
+		}
+
+		// and an unknown tag in every position of a long sentence, which
+		// no T part should match but any rule may overwrite
+		Random random = new Random(3);
+		for (Sentence s : sentences) {
+			Sentence copy = s.copy();
+			for (int i = 0; i < copy.tags.size(); ++i) {
+				if (random.nextInt(4) == 0)
+					copy.tags.set(i, "X");
+			}
+
+			for (Chunker c : new Chunker[] { chunker, transducer, incremental,
+					vector, packed }) {
+				assertEquals(copy.toString(), chunker.chunkSentenceReference(
+						copy.words, copy.tags, copy.pos), c.chunkSentence(
+						copy.words, copy.tags, copy.pos));
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentChunking() throws Exception {
+		for (final Chunker c : new Chunker[] { chunker, transducer,
+				incremental, vector, packed }) {
+			// work out what each sentence should be chunked as using just
+			// the one thread
+			final List<List<String>> expected = new ArrayList<List<String>>();
+			for (Sentence s : sentences)
+				expected.add(c.chunkSentence(s.words, s.tags, s.pos));
+
+			// then have lots of threads chunk the same sentences, sharing
+			// both the chunker and the input lists, each in a different order
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				for (int t = 0; t < 16; ++t) {
+					final Random random = new Random(t);
+					results.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							List<Integer> order = new ArrayList<Integer>();
+							for (int i = 0; i < sentences.size(); ++i)
+								order.add(i);
+
+							for (int round = 0; round < 2; ++round) {
+								Collections.shuffle(order, random);
+								for (int i : order) {
+									Sentence s = sentences.get(i);
+									assertEquals(s.toString(), expected.get(i),
+											c.chunkSentence(s.words, s.tags, s.pos));
+								}
+							}
+							return null;
+						}
+					}));
+				}
+
+				// rethrows any assertion which failed on another thread
+				for (Future<Void> result : results)
+					result.get();
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testSteadyStateIsAllocationFree() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+		for (Chunker c : new Chunker[] { chunker, transducer, incremental,
+				packed }) {
+			// encode all the sentences up front
+			int[][][] encoded = new int[sentences.size()][][];
+			for (int i = 0; i < encoded.length; ++i) {
+				Sentence s = sentences.get(i);
+				encoded[i] = new int[4][s.words.size()];
+				for (int j = 0; j < s.words.size(); ++j) {
+					encoded[i][0][j] = c.getId(Chunker.WORD, s.words.get(j));
+					encoded[i][1][j] = c.getId(Chunker.POS, s.pos.get(j));
+					encoded[i][2][j] = c.getId(Chunker.TAG, s.tags.get(j));
+				}
+			}
+
+			// warm up so that all the buffers have grown to fit
+			for (int round = 0; round < 20; ++round)
+				chunkAll(c, encoded);
+
+			long id = Thread.currentThread().getId();
+			long before = threads.getThreadAllocatedBytes(id);
+			long overhead = threads.getThreadAllocatedBytes(id) - before;
+
+			// the JIT can still allocate the odd object as it finishes
+			// compiling so take the best of a few measurements
+			long allocated = Long.MAX_VALUE;
+			for (int attempt = 0; attempt < 5; ++attempt) {
+				before = threads.getThreadAllocatedBytes(id);
+				for (int round = 0; round < 5; ++round)
+					chunkAll(c, encoded);
+				allocated = Math.min(allocated,
+						threads.getThreadAllocatedBytes(id) - before - overhead);
+			}
+
+			assertEquals("bytes allocated chunking " + 5 * encoded.length
+					+ " sentences", 0, Math.max(0, allocated));
+		}
+	}
+
+	private static void chunkAll(Chunker c, int[][][] encoded) {
+		for (int[][] s : encoded) {
+			c.chunkSentence(s[0], s[2], s[1], s[0].length, s[3]);
+		}
+	}
+
+	/**
+	 * A sentence held as the three lists passed to
+	 * {@link Chunker#chunkSentence(List, List, List)}.
+	 **/
+	static class Sentence {
+		List<String> words = new ArrayList<String>();
+
+		List<String> pos = new ArrayList<String>();
+
+		List<String> tags = new ArrayList<String>();
+
+		Sentence copy() {
+			Sentence copy = new Sentence();
+			copy.words.addAll(words);
+			copy.pos.addAll(pos);
+			copy.tags.addAll(tags);
+			return copy;
+		}
+
+		@Override
+		public String toString() {
+			return words + " " + pos + " " + tags;
+		}
+	}
+
+	/**
+	 * Reads the sample sentences assigning the initial chunk tags from the
+	 * pos_tag_dict in the same way as the GATE wrapper.
+	 **/
+	static List<Sentence> readSentences() throws IOException {
+		Map<String, String> chunkTags = new HashMap<String, String>();
+		try (BufferedReader in = open("/resources/pos_tag_dict")) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] tags = line.split(" ");
+				chunkTags.put(tags[0], tags[1]);
+			}
+		}
+
+		List<Sentence> sentences = new ArrayList<Sentence>();
+		try (BufferedReader in = open("/mark/chunking/sentences.txt")) {
+			Sentence s = new Sentence();
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					if (!s.words.isEmpty())
+						sentences.add(s);
+					s = new Sentence();
+				} else {
+					String[] token = line.split("\t");
+					String tag = chunkTags.get(token[1]);
+					s.words.add(token[0]);
+					s.pos.add(token[1]);
+					s.tags.add(tag == null ? "I" : tag);
+				}
+			}
+			if (!s.words.isEmpty())
+				sentences.add(s);
+		}
+		return sentences;
+	}
+
+	/**
+	 * Builds random sentences from the words and POS tags that the rules
+	 * refer to so that many more of the rules fire than on real text.
+	 **/
+	static List<Sentence> randomSentences(URL rules, Random random, int count)
+			throws IOException {
+		List<String> words = new ArrayList<String>();
+		List<String> pos = new ArrayList<String>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				rules.openStream(), "UTF-8"))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split(" ");
+				String template = parts[0];
+				int index = 1;
+				for (int i = 0; i < template.length(); ++i) {
+					char c = template.charAt(i);
+					if (c == 'W')
+						words.add(parts[index++]);
+					else if (c == 'P')
+						pos.add(parts[index++]);
+					else if (c == 'T')
+						index++;
+				}
+			}
+		}
+
+		String[] tags = { "I", "O", "B" };
+		List<Sentence> sentences = new ArrayList<Sentence>();
+		for (int i = 0; i < count; ++i) {
+			Sentence s = new Sentence();
+			int length = 1 + random.nextInt(40);
+			for (int j = 0; j < length; ++j) {
+				s.words.add(words.get(random.nextInt(words.size())));
+				s.pos.add(pos.get(random.nextInt(pos.size())));
+				s.tags.add(tags[random.nextInt(tags.length)]);
+			}
+			sentences.add(s);
+		}
+		return sentences;
+	}
+
+	private static BufferedReader open(String resource) throws IOException {
+		return new BufferedReader(new InputStreamReader(
+				ChunkerTest.class.getResourceAsStream(resource), "UTF-8"));
+	}
+}
@@ -0,0 +1,207 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompiledModelTest {
+
+	private static URL rules;
+
+	private static URL posTags;
+
+	private static File model;
+
+	@BeforeClass
+	public static void compileModel() throws IOException {
+		rules = CompiledModelTest.class.getResource("/resources/rules");
+		posTags = CompiledModelTest.class.getResource("/resources/pos_tag_dict");
+
+		model = File.createTempFile("chunker", ".model");
+		model.deleteOnExit();
+		CompiledModel.compile(rules, posTags, model);
+	}
+
+	@Test
+	public void testRulesAreUnchanged() throws IOException {
+		List<Rule> expected = new Chunker(rules).getRules();
+		List<Rule> loaded = CompiledModel.read(model.toURI().toURL())
+				.createChunker(ChunkerEngine.COMPILED).getRules();
+
+		assertEquals(expected.size(), loaded.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(expected.get(i).toString(), loaded.get(i).toString());
+		}
+	}
+
+	@Test
+	public void testCompiledModelMatchesReference() throws IOException {
+		Chunker reference = new Chunker(rules);
+
+		List<Sentence> sentences = new ArrayList<Sentence>();
+		sentences.addAll(ChunkerTest.readSentences());
+		sentences.addAll(ChunkerTest.randomSentences(rules, new Random(7), 200));
+
+		CompiledModel loaded = CompiledModel.read(model.toURI().toURL());
+		for (ChunkerEngine engine : ChunkerEngine.values()) {
+			Chunker chunker = loaded.createChunker(engine);
+			for (Sentence s : sentences) {
+				assertEquals(engine + " " + s, reference.chunkSentenceReference(
+						s.words, s.tags, s.pos), chunker.chunkSentence(s.words,
+						s.tags, s.pos));
+			}
+		}
+	}
+
+	@Test
+	public void testStaleModelIsDetected() throws IOException {
+		CompiledModel loaded = CompiledModel.read(model.toURI().toURL());
+		assertTrue(loaded.isUpToDate(rules, posTags));
+
+		// drop the last rule to simulate the rules being edited after the
+		// model was compiled
+		List<String> lines = new ArrayList<String>();
+		for (Rule rule : new Chunker(rules).getRules())
+			lines.add(rule.toString());
+		lines.remove(lines.size() - 1);
+
+		File edited = File.createTempFile("rules", ".txt");
+		edited.deleteOnExit();
+		Files.write(edited.toPath(), lines, StandardCharsets.UTF_8);
+
+		assertFalse(loaded.isUpToDate(edited.toURI().toURL(), posTags));
+	}
+
+	@Test
+	public void testTouchedSourceIsChecksummed() throws IOException {
+		File copy = File.createTempFile("rules", ".txt");
+		copy.deleteOnExit();
+		Files.copy(new File(rules.getPath()).toPath(), copy.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		File compiled = File.createTempFile("chunker", ".model");
+		compiled.deleteOnExit();
+		CompiledModel.compile(copy.toURI().toURL(), posTags, compiled);
+		CompiledModel loaded = CompiledModel.read(compiled.toURI().toURL());
+		assertTrue(loaded.isUpToDate(copy.toURI().toURL(), posTags));
+
+		// a new modified time means the stamps no longer match, but the
+		// contents, and so the checksum, are unchanged
+		copy.setLastModified(copy.lastModified() - 60000);
+		assertTrue(loaded.isUpToDate(copy.toURI().toURL(), posTags));
+
+		// whereas changing the contents is noticed
+		Files.write(copy.toPath(), Arrays.asList("W0=the:B"),
+				StandardCharsets.UTF_8);
+		assertFalse(loaded.isUpToDate(copy.toURI().toURL(), posTags));
+	}
+
+	@Test
+	public void testUnreadableSourceIsNotUpToDate() throws IOException {
+		CompiledModel loaded = CompiledModel.read(model.toURI().toURL());
+
+		File missing = File.createTempFile("rules", ".txt");
+		missing.delete();
+
+		assertFalse(loaded.isUpToDate(missing.toURI().toURL(), posTags));
+	}
+
+	@Test
+	public void testCorruptModelIsRejected() throws IOException {
+		File corrupt = File.createTempFile("corrupt", ".model");
+		corrupt.deleteOnExit();
+		Files.copy(model.toPath(), corrupt.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		// flip the bits of the last byte in the file
+		try (RandomAccessFile file = new RandomAccessFile(corrupt, "rw")) {
+			file.seek(file.length() - 1);
+			int last = file.read();
+			file.seek(file.length() - 1);
+			file.write(~last);
+		}
+
+		try {
+			CompiledModel.read(corrupt.toURI().toURL());
+			fail("a corrupt model was loaded");
+		} catch (IOException e) {
+			// this is what we expected
+		}
+	}
+
+	@Test
+	public void testMalformedModelIsRejected() throws IOException {
+		byte[] bytes = Files.readAllBytes(model.toPath());
+
+		// cut the last rule short
+		assertMalformed(Arrays.copyOf(bytes, bytes.length - 3));
+
+		// give the last rule a chunk tag that doesn't exist
+		byte[] badTag = bytes.clone();
+		ByteBuffer.wrap(badTag).putInt(badTag.length - 4, 1000);
+		assertMalformed(badTag);
+
+		// claim there are far more symbols than there could be
+		byte[] badCount = bytes.clone();
+		ByteBuffer.wrap(badCount).putInt(CompiledModel.HEADER, Integer.MAX_VALUE);
+		assertMalformed(badCount);
+	}
+
+	@Test
+	public void testDictionarySkipsIncompleteLines() throws IOException {
+		File dictionary = File.createTempFile("pos_tag_dict", ".txt");
+		dictionary.deleteOnExit();
+		Files.write(dictionary.toPath(),
+				Arrays.asList("NN I", "", "JJ", "DT B", ""),
+				StandardCharsets.UTF_8);
+
+		Map<String, String> tags = CompiledModel.readChunkTags(dictionary
+				.toURI().toURL());
+		assertEquals(2, tags.size());
+		assertEquals("I", tags.get("NN"));
+		assertEquals("B", tags.get("DT"));
+	}
+
+	/**
+	 * Checks that a model which has been altered, but whose checksum has been
+	 * fixed up to match, can't be loaded.
+	 **/
+	private static void assertMalformed(byte[] bytes) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, CompiledModel.HEADER, bytes.length
+				- CompiledModel.HEADER);
+		ByteBuffer.wrap(bytes).putLong(16, crc.getValue());
+
+		File malformed = File.createTempFile("malformed", ".model");
+		malformed.deleteOnExit();
+		Files.write(malformed.toPath(), bytes);
+
+		try {
+			CompiledModel.read(malformed.toURI().toURL());
+			fail("a malformed model was loaded");
+		} catch (IOException e) {
+			// this is what we expected
+		}
+	}
+}
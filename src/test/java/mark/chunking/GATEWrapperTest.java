@@ -0,0 +1,616 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.Gate;
+import gate.creole.ResourceReference;
+import gate.event.ProgressListener;
+import gate.util.OffsetComparator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the GATE wrapper over documents built from the sample sentences and
+ * checks the chunks it adds.
+ **/
+public class GATEWrapperTest {
+
+	private static List<Sentence> sentences;
+
+	private GATEWrapper chunker;
+
+	private Document document;
+
+	@BeforeClass
+	public static void initGate() throws Exception {
+		Gate.runInSandbox(true);
+		if (!Gate.isInitialised())
+			Gate.init();
+
+		sentences = ChunkerTest.readSentences();
+	}
+
+	@Before
+	public void createChunker() throws Exception {
+		chunker = createChunker("chunks");
+		chunker.init();
+	}
+
+	@After
+	public void tearDown() {
+		if (document != null)
+			Factory.deleteResource(document);
+		Factory.deleteResource(chunker);
+	}
+
+	/**
+	 * Creates a wrapper with every parameter set, as GATE would if the
+	 * wrapper were created through the factory, which adds its chunks to
+	 * the named annotation set. The wrapper still needs initialising.
+	 **/
+	private static GATEWrapper createChunker(String outputASName)
+			throws Exception {
+		GATEWrapper chunker = new GATEWrapper();
+		chunker.setRulesURL(new ResourceReference(GATEWrapperTest.class
+				.getResource("/resources/rules")));
+		chunker.setPosTagURL(new ResourceReference(GATEWrapperTest.class
+				.getResource("/resources/pos_tag_dict")));
+		chunker.setEngine(ChunkerEngine.COMPILED);
+		chunker.setPosFeature("category");
+		chunker.setUnknownTag("I");
+		chunker.setAnnotationName("NounChunk");
+		chunker.setOutputASName(outputASName);
+		chunker.setOutputMode(OutputMode.ANNOTATIONS);
+		chunker.setTagFeature("chunk");
+		chunker.setParallel(false);
+		chunker.setIncremental(false);
+		chunker.setShareFeatures(false);
+		chunker.setFailOnMissingInputAnnotations(false);
+		return chunker;
+	}
+
+	/**
+	 * Creates a document holding the sentences, with a token annotation,
+	 * carrying string and category features, for every word and a sentence
+	 * annotation around each sentence.
+	 **/
+	private static Document createDocument(List<Sentence> sentences)
+			throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (Sentence s : sentences) {
+			for (String word : s.words) {
+				text.append(word).append(' ');
+			}
+		}
+
+		Document document = Factory.newDocument(text.toString());
+
+		AnnotationSet annotations = document.getAnnotations();
+		long offset = 0;
+		for (Sentence s : sentences) {
+			long start = offset;
+			for (int i = 0; i < s.words.size(); ++i) {
+				FeatureMap features = Factory.newFeatureMap();
+				features.put("string", s.words.get(i));
+				features.put("category", s.pos.get(i));
+
+				long end = offset + s.words.get(i).length();
+				annotations.add(offset, end, "Token", features);
+				offset = end + 1;
+			}
+			annotations.add(start, offset - 1, "Sentence",
+					Factory.newFeatureMap());
+		}
+
+		return document;
+	}
+
+	/**
+	 * Gives every seventh token a POS tag which isn't in the dictionary, so
+	 * that it starts with the unknown chunk tag.
+	 **/
+	private static void addUnknownTags(Document document) {
+		int t = 0;
+		for (Annotation token : document.getAnnotations().get("Token")
+				.inDocumentOrder()) {
+			if (t++ % 7 == 0)
+				token.getFeatures().put("category", "XX");
+		}
+	}
+
+	/**
+	 * Chunks the current document as the wrapper used to, querying and
+	 * sorting the tokens of each sentence in turn, chunking the sentence as
+	 * lists of strings and then adding an annotation for each run of B and I
+	 * tags. The chunks are added to the baseline annotation set and the tag
+	 * of each token is written to its baseline feature.
+	 **/
+	private AnnotationSet baseline() {
+		Chunker c = chunker.getChunker();
+		Map<String, String> chunkTags = chunker.getChunkTags();
+		AnnotationSet input = document.getAnnotations();
+		AnnotationSet tokenas = input.get("Token");
+		AnnotationSet output = document.getAnnotations("baseline");
+
+		for (Annotation sentence : input.get("Sentence")) {
+			List<Annotation> tokens = new ArrayList<Annotation>();
+			tokens.addAll(tokenas.getContained(sentence.getStartNode()
+					.getOffset(), sentence.getEndNode().getOffset()));
+			Collections.sort(tokens, new OffsetComparator());
+
+			List<String> wl = new ArrayList<String>();
+			List<String> tl = new ArrayList<String>();
+			List<String> pl = new ArrayList<String>();
+			for (Annotation token : tokens) {
+				String pos = (String) token.getFeatures().get("category");
+				String chunkTag = chunkTags.get(pos);
+				wl.add((String) token.getFeatures().get("string"));
+				pl.add(pos);
+				tl.add(chunkTag == null ? chunker.getUnknownTag() : chunkTag);
+			}
+
+			tl = c.chunkSentence(wl, tl, pl);
+
+			int start = 0;
+			boolean inBaseNP = false;
+			for (int tIndex = 0; tIndex < tl.size(); ++tIndex) {
+				String ct = tl.get(tIndex);
+				tokens.get(tIndex).getFeatures().put("baseline", ct);
+
+				if (inBaseNP) {
+					if (ct.equals("B")) {
+						addChunk(output, tokens, start, tIndex - 1);
+						start = tIndex;
+					} else if (ct.equals("O")) {
+						addChunk(output, tokens, start, tIndex - 1);
+						inBaseNP = false;
+					}
+				} else if (ct.equals("B") || ct.equals("I")) {
+					start = tIndex;
+					inBaseNP = true;
+				}
+			}
+			if (inBaseNP)
+				addChunk(output, tokens, start, tl.size() - 1);
+		}
+
+		return output;
+	}
+
+	private static void addChunk(AnnotationSet output,
+			List<Annotation> tokens, int first, int last) {
+		Annotation start = tokens.get(first);
+		Annotation end = tokens.get(last);
+		if (start.getStartNode().getOffset() >= end.getEndNode().getOffset())
+			return;
+
+		output.add(start.getStartNode(), end.getEndNode(), "NounChunk",
+				Factory.newFeatureMap());
+	}
+
+	/**
+	 * Describes the annotations in a set, in document order, by their type
+	 * and offsets.
+	 **/
+	private static List<String> spans(AnnotationSet annotations) {
+		List<String> spans = new ArrayList<String>();
+		for (Annotation annotation : annotations.inDocumentOrder()) {
+			spans.add(annotation.getType() + " "
+					+ annotation.getStartNode().getOffset() + "-"
+					+ annotation.getEndNode().getOffset());
+		}
+		return spans;
+	}
+
+	/**
+	 * Describes the annotations in a set, in the order they were added, by
+	 * their type, offsets and features.
+	 **/
+	private static List<String> added(AnnotationSet annotations) {
+		List<Annotation> sorted = new ArrayList<Annotation>(annotations);
+		Collections.sort(sorted, new Comparator<Annotation>() {
+			@Override
+			public int compare(Annotation a, Annotation b) {
+				return a.getId().compareTo(b.getId());
+			}
+		});
+
+		List<String> added = new ArrayList<String>();
+		for (Annotation annotation : sorted) {
+			added.add(annotation.getType() + " "
+					+ annotation.getStartNode().getOffset() + "-"
+					+ annotation.getEndNode().getOffset() + " "
+					+ annotation.getFeatures());
+		}
+		return added;
+	}
+
+	/**
+	 * Returns the ids of the chunks within a sentence.
+	 **/
+	private static Set<Integer> chunkIds(AnnotationSet chunks,
+			Annotation sentence) {
+		Set<Integer> ids = new HashSet<Integer>();
+		for (Annotation chunk : chunks.getContained(sentence.getStartNode()
+				.getOffset(), sentence.getEndNode().getOffset()))
+			ids.add(chunk.getId());
+		return ids;
+	}
+
+	/**
+	 * Returns the tokens within a sentence in document order.
+	 **/
+	private static List<Annotation> tokens(AnnotationSet input,
+			Annotation sentence) {
+		return input.getContained(sentence.getStartNode().getOffset(),
+				sentence.getEndNode().getOffset()).get("Token")
+				.inDocumentOrder();
+	}
+
+	/**
+	 * Chunks the whole of the current document with a new wrapper, adding
+	 * chunk annotations and token features, and returns the chunks.
+	 **/
+	private AnnotationSet reference(String unknownTag) throws Exception {
+		GATEWrapper reference = createChunker("reference");
+		try {
+			reference.init();
+			document.getAnnotations("reference").clear();
+			reference.setUnknownTag(unknownTag);
+			reference.setOutputMode(OutputMode.BOTH);
+			reference.setTagFeature("reference");
+			reference.setDocument(document);
+			reference.execute();
+			return document.getAnnotations("reference");
+		} finally {
+			Factory.deleteResource(reference);
+		}
+	}
+
+	@Test
+	public void incremental() throws Exception {
+		chunker.setIncremental(true);
+		chunker.setOutputMode(OutputMode.BOTH);
+
+		document = createDocument(sentences);
+		AnnotationSet input = document.getAnnotations();
+		AnnotationSet output = document.getAnnotations("chunks");
+
+		// leave the last sentence unsplit so that it can be added later
+		List<Annotation> split = new ArrayList<Annotation>(input.get(
+				"Sentence").inDocumentOrder());
+		Annotation unsplit = split.remove(split.size() - 1);
+		input.remove(unsplit);
+
+		chunker.setDocument(document);
+		chunker.execute();
+
+		List<Set<Integer>> before = new ArrayList<Set<Integer>>();
+		for (Annotation sentence : split)
+			before.add(chunkIds(output, sentence));
+
+		// running again replaces nothing, as setting the chunk features of
+		// the tokens doesn't count as changing their sentences
+		List<String> spans = spans(output);
+		chunker.execute();
+		assertEquals(spans, spans(output));
+		for (int s = 0; s < split.size(); ++s)
+			assertEquals(before.get(s), chunkIds(output, split.get(s)));
+
+		// now change the POS tag of a token, remove a sentence and add one
+		Annotation edited = split.get(1);
+		Annotation removed = split.get(3);
+		assertFalse(before.get(1).isEmpty());
+		assertFalse(before.get(3).isEmpty());
+
+		tokens(input, edited).get(0).getFeatures().put("category", "NN");
+		input.remove(removed);
+		input.add(unsplit.getStartNode().getOffset(), unsplit.getEndNode()
+				.getOffset(), "Sentence", Factory.newFeatureMap());
+
+		chunker.execute();
+
+		for (int s = 0; s < split.size(); ++s) {
+			Set<Integer> after = chunkIds(output, split.get(s));
+			if (split.get(s) == edited) {
+				// every chunk of the edited sentence has been replaced
+				assertFalse(after.isEmpty());
+				assertTrue(Collections.disjoint(before.get(s), after));
+			} else if (split.get(s) == removed) {
+				assertTrue(after.isEmpty());
+			} else {
+				// and the chunks of every other sentence are untouched
+				assertEquals(before.get(s), after);
+			}
+		}
+		assertFalse(chunkIds(output, unsplit).isEmpty());
+
+		// which leaves the same chunks and features as chunking the whole
+		// document again
+		AnnotationSet reference = reference("I");
+		assertEquals(spans(reference), spans(output));
+		for (Annotation sentence : input.get("Sentence")) {
+			for (Annotation token : tokens(input, sentence)) {
+				assertEquals(token.getFeatures().get("reference"), token
+						.getFeatures().get("chunk"));
+			}
+		}
+
+		// changing a setting the chunks depend on chunks the whole document
+		// again, replacing rather than duplicating the chunks
+		chunker.setUnknownTag("O");
+		chunker.execute();
+		assertEquals(spans(reference("O")), spans(output));
+	}
+
+	@Test
+	public void incrementalAfterFailure() throws Exception {
+		chunker.setIncremental(true);
+
+		document = createDocument(sentences);
+		AnnotationSet input = document.getAnnotations();
+		AnnotationSet output = document.getAnnotations("chunks");
+		chunker.setDocument(document);
+
+		// a POS tag which isn't a string makes the first run fail
+		Annotation token = input.get("Token").inDocumentOrder().get(0);
+		token.getFeatures().put("category", 1);
+		try {
+			chunker.execute();
+			fail("chunked a token with a POS tag which isn't a string");
+		} catch (ClassCastException e) {
+			// this is what we expected
+		}
+
+		// which mustn't leave the document looking as if it were chunked
+		token.getFeatures().put("category", "DT");
+		chunker.execute();
+		List<String> chunked = spans(output);
+		assertFalse(chunked.isEmpty());
+		assertEquals(spans(reference("I")), chunked);
+
+		// and the same for a failed incremental run, which has already
+		// removed the old chunks of the changed sentence
+		token.getFeatures().put("category", 1);
+		try {
+			chunker.execute();
+			fail("chunked a token with a POS tag which isn't a string");
+		} catch (ClassCastException e) {
+			// this is what we expected
+		}
+
+		token.getFeatures().put("category", "DT");
+		chunker.execute();
+		assertEquals(chunked, spans(output));
+	}
+
+	@Test
+	public void parallel() throws Exception {
+		// enough copies of the sample sentences to need several batches
+		List<Sentence> copies = new ArrayList<Sentence>();
+		int tokens = 0;
+		while (tokens <= GATEWrapper.BATCH_TOKENS * 3) {
+			for (Sentence s : sentences) {
+				copies.add(s);
+				tokens += s.words.size();
+			}
+		}
+		document = createDocument(copies);
+		chunker.setDocument(document);
+		chunker.setOutputMode(OutputMode.BOTH);
+
+		final List<Integer> progress = new ArrayList<Integer>();
+		chunker.addProgressListener(new ProgressListener() {
+			@Override
+			public void progressChanged(int i) {
+				progress.add(i);
+			}
+
+			@Override
+			public void processFinished() {
+				// only the progress itself is checked
+			}
+		});
+
+		chunker.setOutputASName("sequential");
+		chunker.setTagFeature("sequential");
+		chunker.execute();
+
+		chunker.setParallel(true);
+		chunker.setOutputASName("parallel");
+		chunker.setTagFeature("parallel");
+		chunker.execute();
+
+		// the same chunks are added, in the same order, whichever way the
+		// document is chunked
+		List<String> sequential = added(document.getAnnotations("sequential"));
+		assertFalse(sequential.isEmpty());
+		assertEquals(sequential, added(document.getAnnotations("parallel")));
+
+		// and every token gets the same chunk tag
+		for (Annotation token : document.getAnnotations().get("Token")) {
+			assertEquals(token.getFeatures().get("sequential"), token
+					.getFeatures().get("parallel"));
+		}
+
+		// the progress of each run climbs from 0 to no more than 100
+		assertFalse(progress.isEmpty());
+		int last = 0;
+		for (int p : progress) {
+			assertTrue(p >= 0 && p <= 100);
+			assertTrue(p >= last || p == 0);
+			last = p;
+		}
+	}
+
+	@Test
+	public void sameAsBaseline() throws Exception {
+		document = createDocument(sentences);
+		addUnknownTags(document);
+		chunker.setDocument(document);
+		chunker.execute();
+
+		List<String> baseline = spans(baseline());
+		assertFalse(baseline.isEmpty());
+		assertEquals(baseline, spans(document.getAnnotations("chunks")));
+
+		// and also with the unknown tag starting chunks rather than
+		// leaving tokens out of them
+		document.getAnnotations("baseline").clear();
+		document.getAnnotations("chunks").clear();
+		chunker.setUnknownTag("B");
+		chunker.execute();
+		assertEquals(spans(baseline()),
+				spans(document.getAnnotations("chunks")));
+	}
+
+	@Test
+	public void deserialized() throws Exception {
+		// GATE resources can be saved and restored, which leaves the
+		// transient state of the wrapper unset
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(createChunker("chunks"));
+		}
+		GATEWrapper restored;
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()))) {
+			restored = (GATEWrapper) in.readObject();
+		}
+
+		try {
+			restored.init();
+			restored.setIncremental(true);
+
+			document = createDocument(sentences);
+			restored.setDocument(document);
+			restored.execute();
+
+			assertEquals(spans(baseline()),
+					spans(document.getAnnotations("chunks")));
+		} finally {
+			Factory.deleteResource(restored);
+		}
+	}
+
+	@Test
+	public void outputModes() throws Exception {
+		for (OutputMode mode : OutputMode.values()) {
+			document = createDocument(sentences);
+			addUnknownTags(document);
+			chunker.setOutputMode(mode);
+			chunker.setDocument(document);
+			chunker.execute();
+
+			AnnotationSet baseline = baseline();
+			AnnotationSet chunks = document.getAnnotations("chunks");
+			boolean annotations = mode != OutputMode.TOKEN_FEATURES;
+			boolean features = mode != OutputMode.ANNOTATIONS;
+
+			// the chunks are only added if asked for
+			assertEquals(mode.toString(), annotations ? spans(baseline)
+					: Collections.<String> emptyList(), spans(chunks));
+
+			// as are the chunk tags of the tokens
+			for (Annotation token : document.getAnnotations().get("Token")) {
+				Object expected = token.getFeatures().get("baseline");
+				assertNotNull(expected);
+				assertEquals(mode.toString(), features ? expected : null,
+						token.getFeatures().get("chunk"));
+			}
+
+			Factory.deleteResource(document);
+		}
+		document = null;
+	}
+
+	@Test
+	public void shareFeatures() throws Exception {
+		document = createDocument(sentences);
+		chunker.setDocument(document);
+		chunker.execute();
+
+		chunker.setShareFeatures(true);
+		chunker.setOutputASName("shared");
+		chunker.execute();
+
+		// sharing the feature map doesn't change the chunks
+		AnnotationSet shared = document.getAnnotations("shared");
+		assertEquals(spans(document.getAnnotations("chunks")), spans(shared));
+
+		// but, as documented, the chunks added by a run aren't safe to edit
+		// as a feature added to one of them is seen on all the others
+		List<Annotation> chunks = shared.inDocumentOrder();
+		chunks.get(0).getFeatures().put("edited", true);
+		for (Annotation chunk : chunks)
+			assertEquals(true, chunk.getFeatures().get("edited"));
+
+		// whereas the chunks of the next run get a map of their own
+		chunker.setOutputASName("more");
+		chunker.execute();
+		for (Annotation chunk : document.getAnnotations("more"))
+			assertTrue(chunk.getFeatures().isEmpty());
+	}
+
+	@Test
+	public void duplicatesShareMBeans() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName all = new ObjectName("mark.chunking:*");
+		int before = server.queryNames(all, null).size();
+
+		GATEWrapper original = createChunker("chunks");
+		original.setCollectStatistics(true);
+		original.setCacheSize(100);
+		original.init();
+		assertEquals(before + 2, server.queryNames(all, null).size());
+
+		// duplicate the wrapper as GATE would, sharing the rules, dictionary
+		// and cache, which doesn't register any more MBeans
+		GATEWrapper duplicate = createChunker("chunks");
+		duplicate.setCollectStatistics(true);
+		duplicate.setCacheSize(100);
+		duplicate.setChunker(original.getChunker());
+		duplicate.setChunkTags(original.getChunkTags());
+		duplicate.setSentenceCache(original.getSentenceCache());
+		duplicate.init();
+		assertEquals(before + 2, server.queryNames(all, null).size());
+
+		// the MBeans stay while the duplicate is still using them
+		original.cleanup();
+		assertEquals(before + 2, server.queryNames(all, null).size());
+
+		// and go with the last user
+		duplicate.cleanup();
+		assertEquals(before, server.queryNames(all, null).size());
+	}
+}
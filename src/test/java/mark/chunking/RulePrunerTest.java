@@ -0,0 +1,148 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RulePrunerTest {
+
+	private static URL rules;
+
+	private static Map<String, String> chunkTags;
+
+	@BeforeClass
+	public static void loadRules() throws IOException {
+		rules = RulePrunerTest.class.getResource("/resources/rules");
+		chunkTags = CompiledModel.readChunkTags(RulePrunerTest.class
+				.getResource("/resources/pos_tag_dict"));
+	}
+
+	@Test
+	public void testPrunedRulesGiveTheSameTags() throws IOException {
+		Chunker full = new Chunker(rules);
+		RulePruner pruner = new RulePruner(full, chunkTags, "I");
+		try (BufferedReader in = corpus()) {
+			pruner.count(in);
+		}
+
+		List<Rule> kept = pruner.prune(1);
+		assertTrue(kept.size() > 0);
+		assertTrue(kept.size() < full.getRules().size());
+
+		// the kept rules must be in the same order as in the full set
+		int next = 0;
+		for (Rule rule : full.getRules()) {
+			if (next < kept.size() && kept.get(next) == rule)
+				++next;
+		}
+		assertEquals(kept.size(), next);
+
+		Chunker pruned = new Chunker(write(kept));
+		assertEquals(kept.size(), pruned.getRules().size());
+
+		StringWriter report = new StringWriter();
+		try (BufferedReader in = corpus()) {
+			assertEquals(0, pruner.report(pruned, in, report));
+		}
+		assertTrue(report.toString(), report.toString().contains(
+				"kept " + kept.size() + ", dropped "
+						+ (full.getRules().size() - kept.size())));
+	}
+
+	@Test
+	public void testDifferencesAreReported() throws IOException {
+		Chunker full = new Chunker(rules);
+		RulePruner pruner = new RulePruner(full, chunkTags, "I");
+		try (BufferedReader in = corpus()) {
+			pruner.count(in);
+		}
+
+		// dropping every rule that ever fired must change something
+		Chunker pruned = new Chunker(write(pruner.prune(Long.MAX_VALUE)));
+		assertEquals(0, pruned.getRules().size());
+
+		StringWriter report = new StringWriter();
+		long differences;
+		try (BufferedReader in = corpus()) {
+			differences = pruner.report(pruned, in, report);
+		}
+		assertTrue(differences > 0);
+		assertTrue(report.toString(), report.toString().contains(
+				"tagged differently " + differences + "\n"));
+		assertTrue(report.toString().contains("->"));
+	}
+
+	@Test
+	public void testDuplicateRulesAreReportedByPosition() throws IOException {
+		// the first copy of B->O never fires as there are no B tags until
+		// the two rules after it have run, and then the second copy changes
+		// more tags than either of them
+		File file = File.createTempFile("duplicates", ".rules");
+		file.deleteOnExit();
+		Files.write(file.toPath(), Arrays.asList("T0 B O", "T0 I B",
+				"T0 O B", "T0 B O"), StandardCharsets.UTF_8);
+
+		Chunker full = new Chunker(file.toURI().toURL());
+		RulePruner pruner = new RulePruner(full, chunkTags, "I");
+		pruner.count(sentence());
+
+		List<Rule> kept = pruner.prune(3);
+		assertEquals(1, kept.size());
+		assertSame(full.getRules().get(3), kept.get(0));
+
+		StringWriter report = new StringWriter();
+		pruner.report(new Chunker(write(kept)), sentence(), report);
+		assertFalse(report.toString(), report.toString().contains("Dropped"));
+
+		report = new StringWriter();
+		pruner.reportDropped(report);
+
+		// the dropped rules are the first three, not the copy that was kept
+		assertTrue(report.toString(), report.toString().endsWith(
+				"changed:\n  T0 B O\t0\n  T0 I B\t1\n  T0 O B\t2\n"));
+	}
+
+	/**
+	 * A sentence with one token tagged I and two tagged O.
+	 **/
+	private static BufferedReader sentence() {
+		return new BufferedReader(new StringReader(
+				"dogs\tNNS\nbark\tVBP\n.\t.\n\n"));
+	}
+
+	private static BufferedReader corpus() throws IOException {
+		return new BufferedReader(new InputStreamReader(
+				RulePrunerTest.class
+						.getResourceAsStream("/mark/chunking/sentences.txt"),
+				"UTF-8"));
+	}
+
+	private static URL write(List<Rule> kept) throws IOException {
+		File file = File.createTempFile("pruned", ".rules");
+		file.deleteOnExit();
+		try (Writer out = new OutputStreamWriter(Files.newOutputStream(file
+				.toPath()), "UTF-8")) {
+			RulePruner.writeRules(kept, out);
+		}
+		return file.toURI().toURL();
+	}
+}
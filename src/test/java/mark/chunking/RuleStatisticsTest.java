@@ -0,0 +1,176 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RuleStatisticsTest {
+
+	private static URL rules;
+
+	private static List<Sentence> sentences;
+
+	private static long[] matched;
+
+	private static long[] changed;
+
+	@BeforeClass
+	public static void countReference() throws IOException {
+		rules = RuleStatisticsTest.class.getResource("/resources/rules");
+		sentences = new ArrayList<Sentence>();
+		sentences.addAll(ChunkerTest.readSentences());
+		sentences.addAll(ChunkerTest.randomSentences(rules, new Random(3), 200));
+
+		// count what each rule does by applying the rules one at a time in
+		// the same way as the reference implementation
+		List<Rule> list = new Chunker(rules).getRules();
+		matched = new long[list.size()];
+		changed = new long[list.size()];
+		for (Sentence s : sentences) {
+			List<String> words = new ArrayList<String>(s.words);
+			List<String> pos = new ArrayList<String>(s.pos);
+			List<String> tags = new ArrayList<String>(s.tags);
+			words.add("ZZZ");
+			pos.add("ZZZ");
+			tags.add("Z");
+
+			for (int r = 0; r < list.size(); ++r) {
+				Rule rule = list.get(r);
+				List<String> newTags = new ArrayList<String>(tags);
+				for (int i = 0; i < words.size(); ++i) {
+					if (rule.match(i, words, tags, pos)) {
+						++matched[r];
+						if (!tags.get(i).equals(rule.getNewTag()))
+							++changed[r];
+						newTags.set(i, rule.getNewTag());
+					}
+				}
+				tags = newTags;
+			}
+		}
+	}
+
+	@Test
+	public void testEveryEngineCountsTheSame() throws IOException {
+		for (ChunkerEngine engine : ChunkerEngine.values()) {
+			Chunker chunker = new Chunker(rules, engine);
+			RuleStatistics statistics = chunker.enableStatistics();
+
+			for (Sentence s : sentences) {
+				assertEquals(s.toString(), chunker.chunkSentenceReference(
+						s.words, s.tags, s.pos), chunker.chunkSentence(s.words,
+						s.tags, s.pos));
+			}
+
+			assertEquals(sentences.size(), statistics.getSentences());
+			long[] tested = statistics.getTestedCounts();
+			long[] matchedCounts = statistics.getMatchedCounts();
+			long[] changedCounts = statistics.getChangedCounts();
+			for (int r = 0; r < matched.length; ++r) {
+				assertEquals(engine + " rule " + r, matched[r],
+						matchedCounts[r]);
+				assertEquals(engine + " rule " + r, changed[r],
+						changedCounts[r]);
+				assertTrue(tested[r] >= matchedCounts[r]);
+			}
+
+			// the single rule accessors agree with the bulk ones
+			int last = matched.length - 1;
+			assertEquals(tested[last], statistics.getTested(last));
+			assertEquals(matchedCounts[last], statistics.getMatched(last));
+			assertEquals(changedCounts[last], statistics.getChanged(last));
+
+			// every position an engine tries is tried for a specific rule
+			assertEquals(engine.toString(), chunker.getPositionsTested(),
+						statistics.getPositionsTested());
+		}
+	}
+
+	@Test
+	public void testEnableResetAndDisable() throws IOException {
+		Chunker chunker = new Chunker(rules);
+		assertNull(chunker.getStatistics());
+
+		RuleStatistics statistics = chunker.enableStatistics();
+		assertSame(statistics, chunker.enableStatistics());
+
+		Sentence s = sentences.get(0);
+		chunker.chunkSentence(s.words, s.tags, s.pos);
+		assertEquals(1, statistics.getSentences());
+		assertTrue(statistics.getPositionsTested() > 0);
+		assertTrue(statistics.getRulesSkipped() > 0);
+		assertEquals(statistics.getRulesSkipped(),
+				statistics.getMeanRulesSkipped(), 0);
+
+		statistics.reset();
+		assertEquals(0, statistics.getSentences());
+		assertEquals(0, statistics.getPositionsTested());
+		assertEquals(0, statistics.getRulesSkipped());
+
+		chunker.disableStatistics();
+		assertNull(chunker.getStatistics());
+		chunker.chunkSentence(s.words, s.tags, s.pos);
+		assertEquals(0, statistics.getSentences());
+	}
+
+	@Test
+	public void testFinishedThreadsAreRetired() throws Exception {
+		final Chunker chunker = new Chunker(rules);
+		RuleStatistics statistics = chunker.enableStatistics();
+		final Sentence s = sentences.get(0);
+
+		// chunk on lots of threads that each finish straight away, as a
+		// pool which keeps replacing its threads would
+		for (int i = 0; i < 200; ++i) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					chunker.chunkSentence(s.words, s.tags, s.pos);
+				}
+			};
+			thread.start();
+			thread.join();
+			assertEquals(0, statistics.getThreadCount());
+		}
+
+		// but nothing they counted is lost
+		assertEquals(200, statistics.getSentences());
+
+		statistics.reset();
+		assertEquals(0, statistics.getSentences());
+	}
+
+	@Test
+	public void testCSVHasALinePerRule() throws IOException {
+		Chunker chunker = new Chunker(rules);
+		RuleStatistics statistics = chunker.enableStatistics();
+		for (Sentence s : sentences)
+			chunker.chunkSentence(s.words, s.tags, s.pos);
+
+		StringWriter out = new StringWriter();
+		statistics.writeCSV(out);
+		String[] lines = out.toString().split("\n");
+
+		assertEquals(statistics.getRuleCount() + 1, lines.length);
+		assertEquals("index,rule,tested,matched,changed,sampled_nanos",
+				lines[0]);
+		assertTrue(lines[1].startsWith("0,\""
+				+ chunker.getRules().get(0).toString() + "\","));
+
+		// which is also what JMX clients are given
+		assertEquals(out.toString(), statistics.getCSV());
+	}
+}
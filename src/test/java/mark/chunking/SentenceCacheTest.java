@@ -0,0 +1,170 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SentenceCacheTest {
+
+	private static Chunker chunker;
+
+	private static List<Sentence> sentences;
+
+	@BeforeClass
+	public static void loadChunker() throws IOException {
+		chunker = new Chunker(
+				SentenceCacheTest.class.getResource("/resources/rules"));
+		sentences = ChunkerTest.readSentences();
+	}
+
+	@Test
+	public void testCachedTagsMatchTheChunker() {
+		SentenceCache cache = new SentenceCache(1000, CacheEviction.LRU);
+		for (int round = 0; round < 3; ++round) {
+			for (Sentence s : sentences) {
+				assertEquals(s.toString(),
+						chunker.chunkSentence(s.words, s.tags, s.pos),
+						cache.chunkSentence(chunker, s.words, s.tags, s.pos));
+			}
+		}
+
+		assertEquals(sentences.size(), cache.getMisses());
+		assertEquals(2 * sentences.size(), cache.getHits());
+		assertEquals(sentences.size(), cache.getSize());
+		assertEquals(0, cache.getEvictions());
+
+		// the caller owns the list it is given
+		Sentence s = sentences.get(0);
+		cache.chunkSentence(chunker, s.words, s.tags, s.pos).set(0, "X");
+		assertEquals(chunker.chunkSentence(s.words, s.tags, s.pos),
+				cache.chunkSentence(chunker, s.words, s.tags, s.pos));
+
+		cache.reset();
+		cache.clear();
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testInitialTagsArePartOfTheKey() {
+		SentenceCache cache = new SentenceCache(10, CacheEviction.LRU);
+		Sentence s = sentences.get(0);
+		Sentence other = s.copy();
+		other.tags.set(0, "X");
+
+		cache.chunkSentence(chunker, s.words, s.tags, s.pos);
+		assertEquals(chunker.chunkSentence(other.words, other.tags, other.pos),
+				cache.chunkSentence(chunker, other.words, other.tags,
+						other.pos));
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testEncodedSentences() {
+		// lay the sentences out one after another, as a document is chunked
+		int total = 0;
+		for (Sentence s : sentences)
+			total += s.words.size();
+		int[] words = new int[total], tags = new int[total], pos = new int[total];
+		int i = 0;
+		for (Sentence s : sentences) {
+			for (int j = 0; j < s.words.size(); ++j, ++i) {
+				words[i] = chunker.getId(Chunker.WORD, s.words.get(j));
+				pos[i] = chunker.getId(Chunker.POS, s.pos.get(j));
+				tags[i] = chunker.getId(Chunker.TAG, s.tags.get(j));
+			}
+		}
+
+		SentenceCache cache = new SentenceCache(1000, CacheEviction.LRU);
+		for (int round = 0; round < 2; ++round) {
+			int[] result = new int[total];
+			int offset = 0;
+			for (Sentence s : sentences) {
+				cache.chunkSentence(chunker, words, tags, pos, offset,
+						s.words.size(), result);
+
+				List<String> expected = chunker.chunkSentence(s.words,
+						s.tags, s.pos);
+				for (int j = 0; j < expected.size(); ++j)
+					assertEquals(s.toString(), expected.get(j), chunker
+							.getValue(Chunker.TAG, result[offset + j]));
+				offset += s.words.size();
+			}
+		}
+
+		assertEquals(sentences.size(), cache.getMisses());
+		assertEquals(sentences.size(), cache.getHits());
+	}
+
+	@Test
+	public void testEviction() {
+		Sentence a = sentences.get(0), b = sentences.get(1), c = sentences
+				.get(2);
+
+		// with LRU looking up a keeps it in the cache when c is added
+		SentenceCache lru = new SentenceCache(2, CacheEviction.LRU);
+		for (Sentence s : new Sentence[] { a, b, a, c, a })
+			lru.chunkSentence(chunker, s.words, s.tags, s.pos);
+		assertEquals(2, lru.getHits());
+		assertEquals(1, lru.getEvictions());
+
+		// whereas with FIFO a is the first to go
+		SentenceCache fifo = new SentenceCache(2, CacheEviction.FIFO);
+		for (Sentence s : new Sentence[] { a, b, a, c, a })
+			fifo.chunkSentence(chunker, s.words, s.tags, s.pos);
+		assertEquals(1, fifo.getHits());
+		assertEquals(2, fifo.getEvictions());
+		assertEquals(2, fifo.getSize());
+	}
+
+	@Test
+	public void testConcurrentUse() throws Exception {
+		final SentenceCache cache = new SentenceCache(5000, CacheEviction.LRU);
+		final List<List<String>> expected = new ArrayList<List<String>>();
+		for (Sentence s : sentences)
+			expected.add(chunker.chunkSentence(s.words, s.tags, s.pos));
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 16; ++t) {
+				results.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int round = 0; round < 20; ++round) {
+							for (int i = 0; i < sentences.size(); ++i) {
+								Sentence s = sentences.get(i);
+								assertEquals(expected.get(i), cache
+										.chunkSentence(chunker, s.words,
+												s.tags, s.pos));
+							}
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> result : results)
+				result.get();
+		} finally {
+			pool.shutdown();
+		}
+
+		assertEquals(16 * 20 * sentences.size(),
+				cache.getHits() + cache.getMisses());
+		assertTrue(cache.getHits() > cache.getMisses());
+		assertEquals(sentences.size(), cache.getSize());
+	}
+}
@@ -0,0 +1,84 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SentenceWindowsTest {
+
+	private static Chunker chunker;
+
+	private static List<Sentence> sentences;
+
+	@BeforeClass
+	public static void loadChunker() throws IOException {
+		chunker = new Chunker(
+				SentenceWindowsTest.class.getResource("/resources/rules"));
+		sentences = ChunkerTest.readSentences();
+	}
+
+	/**
+	 * Joins the sample sentences, in a random order, into one long sentence
+	 * and encodes it.
+	 **/
+	private static int[][] longSentence(int length, Random random) {
+		int[][] encoded = new int[3][length];
+		List<Sentence> order = new ArrayList<Sentence>(sentences);
+		int i = 0;
+		while (i < length) {
+			Collections.shuffle(order, random);
+			for (Sentence s : order) {
+				for (int j = 0; j < s.words.size() && i < length; ++j, ++i) {
+					encoded[Chunker.WORD][i] = chunker.getId(Chunker.WORD,
+							s.words.get(j));
+					encoded[Chunker.POS][i] = chunker.getId(Chunker.POS,
+							s.pos.get(j));
+					encoded[Chunker.TAG][i] = chunker.getId(Chunker.TAG,
+							s.tags.get(j));
+				}
+			}
+		}
+		return encoded;
+	}
+
+	@Test
+	public void testWindowsMatchTheWholeSentence() {
+		Random random = new Random(42);
+		SentenceWindows windows = new SentenceWindows(chunker, 200,
+				SentenceWindows.DEFAULT_HALO);
+
+		for (int length : new int[] { 201, 1000, 5003 }) {
+			int[][] s = longSentence(length, random);
+			int[] expected = chunker.chunkSentence(s[Chunker.WORD],
+					s[Chunker.TAG], s[Chunker.POS]);
+
+			int[] result = new int[length];
+			windows.chunkSentence(s[Chunker.WORD], s[Chunker.TAG],
+					s[Chunker.POS], 0, length, result);
+			assertArrayEquals("length " + length, expected, result);
+
+			// the result may also overwrite the tags
+			windows.chunkSentence(s[Chunker.WORD], s[Chunker.TAG],
+					s[Chunker.POS], 0, length, s[Chunker.TAG]);
+			assertArrayEquals("length " + length, expected, s[Chunker.TAG]);
+		}
+	}
+
+	@Test
+	public void testOnlyLongSentencesAreSplit() {
+		SentenceWindows windows = new SentenceWindows(chunker, 100, 10);
+		assertFalse(windows.isLong(100));
+		assertTrue(windows.isLong(101));
+	}
+}
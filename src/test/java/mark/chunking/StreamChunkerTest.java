@@ -0,0 +1,102 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StreamChunkerTest {
+
+	private static StreamChunker chunker;
+
+	private static String input;
+
+	private static String expected;
+
+	@BeforeClass
+	public static void buildInput() throws IOException {
+		URL rules = StreamChunkerTest.class.getResource("/resources/rules");
+		Chunker c = new Chunker(rules);
+		chunker = new StreamChunker(c,
+				CompiledModel.readChunkTags(StreamChunkerTest.class
+						.getResource("/resources/pos_tag_dict")), "I");
+
+		// the sample sentences use the initial chunk tags from the
+		// dictionary so the expected output can be worked out directly
+		List<Sentence> sentences = ChunkerTest.readSentences();
+		StringBuilder in = new StringBuilder();
+		StringBuilder out = new StringBuilder();
+		for (Sentence s : sentences) {
+			List<String> tags = c.chunkSentence(s.words, s.tags, s.pos);
+			for (int i = 0; i < s.words.size(); ++i) {
+				in.append(s.words.get(i)).append('\t').append(s.pos.get(i))
+						.append('\n');
+				out.append(s.words.get(i)).append('\t').append(s.pos.get(i))
+						.append('\t').append(tags.get(i)).append('\n');
+			}
+			in.append('\n');
+			out.append('\n');
+		}
+
+		input = in.toString();
+		expected = out.toString();
+	}
+
+	@Test
+	public void testSingleThreaded() throws IOException {
+		assertEquals(expected, process(input, 1));
+	}
+
+	@Test
+	public void testMultiThreadedOutputIsOrdered() throws IOException {
+		// repeat the input enough times that the queue of sentences fills up
+		StringBuilder in = new StringBuilder();
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < 50; ++i) {
+			in.append(input);
+			out.append(expected);
+		}
+
+		assertEquals(out.toString(), process(in.toString(), 4));
+	}
+
+	@Test
+	public void testExtraBlankLinesAreIgnored() throws IOException {
+		assertEquals(expected, process("\n\n" + input.replace("\n\n", "\n\n\n"),
+				1));
+	}
+
+	@Test
+	public void testPoolIsShared() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			for (int i = 0; i < 3; ++i) {
+				StringWriter out = new StringWriter();
+				chunker.process(new BufferedReader(new StringReader(input)),
+						out, pool, 2);
+				assertEquals(expected, out.toString());
+			}
+			assertFalse(pool.isShutdown());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static String process(String in, int threads) throws IOException {
+		StringWriter out = new StringWriter();
+		chunker.process(new BufferedReader(new StringReader(in)), out, threads);
+		return out.toString();
+	}
+}
@@ -0,0 +1,106 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TokenAlignerTest {
+
+	@Test
+	public void testSimpleDocument() {
+		// three sentences of three tokens each
+		long[] tokenStart = { 0, 4, 8, 12, 16, 20, 24, 28, 32 };
+		long[] tokenEnd = { 3, 7, 11, 15, 19, 23, 27, 31, 35 };
+		long[] sentenceStart = { 12, 0, 24 };
+		long[] sentenceEnd = { 23, 11, 35 };
+
+		int[][] contained = TokenAligner.align(sentenceStart, sentenceEnd,
+				tokenStart, tokenEnd);
+
+		assertArrayEquals(new int[] { 3, 4, 5 }, contained[0]);
+		assertArrayEquals(new int[] { 0, 1, 2 }, contained[1]);
+		assertArrayEquals(new int[] { 6, 7, 8 }, contained[2]);
+	}
+
+	@Test
+	public void testZeroLengthTokenAtSentenceEnd() {
+		// the zero length token at 11 belongs to the second sentence, which
+		// starts there, and not to the first which ends there
+		long[] tokenStart = { 0, 4, 8, 11, 12, 16 };
+		long[] tokenEnd = { 3, 7, 11, 11, 15, 19 };
+		long[] sentenceStart = { 0, 11 };
+		long[] sentenceEnd = { 11, 19 };
+
+		int[][] contained = TokenAligner.align(sentenceStart, sentenceEnd,
+				tokenStart, tokenEnd);
+
+		assertArrayEquals(new int[] { 0, 1, 2 }, contained[0]);
+		assertArrayEquals(new int[] { 3, 4, 5 }, contained[1]);
+	}
+
+	@Test
+	public void testOverlappingAnnotations() {
+		Random random = new Random(42);
+
+		for (int round = 0; round < 200; ++round) {
+			// random tokens, which may overlap each other, sorted by start
+			int tokens = random.nextInt(200);
+			long[][] spans = new long[tokens][];
+			for (int i = 0; i < tokens; ++i) {
+				long start = random.nextInt(1000);
+				spans[i] = new long[] { start, start + random.nextInt(10) };
+			}
+			Arrays.sort(spans, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) {
+					return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long
+							.compare(a[1], b[1]);
+				}
+			});
+
+			long[] tokenStart = new long[tokens];
+			long[] tokenEnd = new long[tokens];
+			for (int i = 0; i < tokens; ++i) {
+				tokenStart[i] = spans[i][0];
+				tokenEnd[i] = spans[i][1];
+			}
+
+			// random sentences, which may be nested or overlap
+			int sentences = random.nextInt(50);
+			long[] sentenceStart = new long[sentences];
+			long[] sentenceEnd = new long[sentences];
+			for (int i = 0; i < sentences; ++i) {
+				sentenceStart[i] = random.nextInt(1000);
+				sentenceEnd[i] = sentenceStart[i] + random.nextInt(200);
+			}
+
+			int[][] contained = TokenAligner.align(sentenceStart,
+					sentenceEnd, tokenStart, tokenEnd);
+
+			for (int s = 0; s < sentences; ++s) {
+				// check against the definition used by getContained, which
+				// only looks at tokens starting strictly before the end
+				List<Integer> expected = new ArrayList<Integer>();
+				for (int t = 0; t < tokens; ++t) {
+					if (tokenStart[t] >= sentenceStart[s]
+							&& tokenStart[t] < sentenceEnd[s]
+							&& tokenEnd[t] <= sentenceEnd[s])
+						expected.add(t);
+				}
+
+				int[] e = new int[expected.size()];
+				for (int i = 0; i < e.length; ++i)
+					e[i] = expected.get(i);
+
+				assertArrayEquals("sentence " + s + " in round " + round, e,
+						contained[s]);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package mark.chunking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mark.chunking.ChunkerTest.Sentence;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class VectorEngineTest {
+
+	private static Chunker chunker;
+
+	private static List<int[][]> encoded;
+
+	@BeforeClass
+	public static void loadChunker() throws IOException {
+		URL rules = VectorEngineTest.class.getResource("/resources/rules");
+		chunker = new Chunker(rules, ChunkerEngine.VECTOR);
+
+		List<Sentence> sentences = new ArrayList<Sentence>();
+		sentences.addAll(ChunkerTest.readSentences());
+		sentences.addAll(ChunkerTest.randomSentences(rules, new Random(7), 200));
+
+		// encode the sentences, with the end of sentence marker, exactly as
+		// the chunker would
+		encoded = new ArrayList<int[][]>();
+		for (Sentence s : sentences) {
+			int n = s.words.size() + 1;
+			int[][] e = new int[3][n];
+			for (int i = 0; i < s.words.size(); ++i) {
+				e[Chunker.WORD][i] = chunker.getId(Chunker.WORD, s.words.get(i));
+				e[Chunker.POS][i] = chunker.getId(Chunker.POS, s.pos.get(i));
+				e[Chunker.TAG][i] = chunker.getId(Chunker.TAG, s.tags.get(i));
+			}
+			e[Chunker.WORD][n - 1] = chunker.getId(Chunker.WORD, "ZZZ");
+			e[Chunker.POS][n - 1] = chunker.getId(Chunker.POS, "ZZZ");
+			e[Chunker.TAG][n - 1] = chunker.getId(Chunker.TAG, "Z");
+			encoded.add(e);
+		}
+	}
+
+	@Test
+	public void testKernelsAgree() {
+		// whichever kernel this JVM can load must give exactly the same masks
+		// and tags as the scalar one, for every rule on every sentence
+		MatchKernel scalar = VectorEngine.createKernel(false);
+		MatchKernel kernel = VectorEngine.createKernel(true);
+
+		for (int[][] sentence : encoded) {
+			int n = sentence[0].length;
+			for (Rule rule : chunker.getRules()) {
+				int from = Math.max(0, -rule.getBegin());
+				int to = Math.min(n, n - rule.getEnd());
+				if (from >= to)
+					continue;
+
+				int[] columns = new int[rule.getPartCount()];
+				int[] ids = new int[columns.length];
+				int[][] offsets = new int[columns.length][];
+				for (int i = 0; i < columns.length; ++i) {
+					columns[i] = rule.getColumn(i);
+					ids[i] = rule.getValueId(i);
+					offsets[i] = rule.getOffsets(i);
+				}
+
+				int[] expectedMask = new int[n];
+				int[] actualMask = new int[n];
+				scalar.match(columns, ids, offsets, sentence, from, to,
+						expectedMask);
+				kernel.match(columns, ids, offsets, sentence, from, to,
+						actualMask);
+				assertArrayEquals(rule.toString(), expectedMask, actualMask);
+
+				// and the masks must agree with matching the rule directly
+				for (int p = 0; p < n; ++p) {
+					assertEquals(rule.toString(), rule.match(p, n, sentence),
+							expectedMask[p] != 0);
+				}
+
+				int[] expectedTags = sentence[Chunker.TAG].clone();
+				int[] actualTags = sentence[Chunker.TAG].clone();
+				assertEquals(rule.toString(), scalar.apply(expectedMask,
+						expectedTags, rule.getNewTagId(), from, to),
+						kernel.apply(actualMask, actualTags,
+								rule.getNewTagId(), from, to));
+				assertArrayEquals(rule.toString(), expectedTags, actualTags);
+			}
+		}
+	}
+}